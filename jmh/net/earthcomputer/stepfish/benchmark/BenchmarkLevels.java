@@ -0,0 +1,81 @@
+package net.earthcomputer.stepfish.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.earthcomputer.stepfish.Level;
+import net.earthcomputer.stepfish.Level.LevelObject;
+import net.earthcomputer.stepfish.Levels;
+import net.earthcomputer.stepfish.object.ObjectTypes;
+
+/**
+ * Loads the levels benchmarks are run on. A level is either the id of a
+ * bundled level, or "synthetic-" followed by a number of objects, for a large
+ * generated level.
+ */
+public class BenchmarkLevels {
+
+	/** The height of each band of a synthetic level, in tiles */
+	private static final int BAND_HEIGHT = 8;
+
+	private BenchmarkLevels() {
+	}
+
+	/**
+	 * Registers the object types, which loading levels needs, and makes sure
+	 * nothing tries to use a display
+	 */
+	public static void setUp() {
+		System.setProperty("java.awt.headless", "true");
+		ObjectTypes.registerTypes();
+	}
+
+	public static Level load(String level) throws Exception {
+		setUp();
+		if (level.startsWith("synthetic-")) {
+			return createSyntheticLevel(Integer.parseInt(level.substring("synthetic-".length())), 0);
+		} else {
+			return Levels.loadLevel(Integer.parseInt(level));
+		}
+	}
+
+	/**
+	 * Generates a level with the given number of objects, made of horizontal
+	 * bands each with a floor, spikes, element switchers and stars on the
+	 * floor, flying crosses above it and a player every so often. The level is
+	 * roughly square, and has no exit.
+	 */
+	public static Level createSyntheticLevel(int objectCount, long seed) {
+		Random rand = new Random(seed);
+		int columns = Math.max(40, (int) Math.ceil(2 * Math.sqrt(objectCount)));
+		List<LevelObject> objects = new ArrayList<LevelObject>(objectCount);
+		int bandTop = 0;
+		while (objects.size() < objectCount) {
+			for (int column = 0; column < columns; column++) {
+				int x = column * 16;
+				objects.add(new LevelObject(x, (bandTop + BAND_HEIGHT - 1) * 16, 1));
+
+				int floorY = (bandTop + BAND_HEIGHT - 2) * 16;
+				int roll = rand.nextInt(100);
+				if (column % 32 == 4) {
+					objects.add(new LevelObject(x, floorY, 0));
+				} else if (roll < 10) {
+					objects.add(new LevelObject(x, floorY, 13 + rand.nextInt(4)));
+				} else if (roll < 13) {
+					objects.add(new LevelObject(x, floorY, 7));
+				} else if (roll < 15) {
+					objects.add(new LevelObject(x, floorY, 6));
+				}
+				if (rand.nextInt(50) == 0) {
+					objects.add(new LevelObject(x, (bandTop + 2) * 16, 8));
+				}
+			}
+			bandTop += BAND_HEIGHT;
+		}
+
+		LevelObject[] objectArray = objects.subList(0, objectCount).toArray(new LevelObject[objectCount]);
+		return Levels.createLevel("synthetic-" + objectCount, columns * 16, bandTop * 16, objectArray);
+	}
+
+}
@@ -0,0 +1,85 @@
+package net.earthcomputer.stepfish.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.earthcomputer.stepfish.geom.collision.CollisionMask;
+import net.earthcomputer.stepfish.geom.collision.MaskEllipse;
+import net.earthcomputer.stepfish.geom.collision.MaskPolygon;
+import net.earthcomputer.stepfish.geom.collision.MaskRectangle;
+import net.earthcomputer.stepfish.object.GameObject;
+
+/**
+ * Measures {@link GameObject#isCollidedWith(GameObject)} between each pair of
+ * mask types, with the objects overlapping, touching diagonally, or apart
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CollisionBenchmark {
+
+	@Param({ "RECTANGLE", "POLYGON", "ELLIPSE" })
+	public MaskType first;
+
+	@Param({ "RECTANGLE", "POLYGON", "ELLIPSE" })
+	public MaskType second;
+
+	/** How far apart the two objects are, in both directions */
+	@Param({ "8", "14", "32" })
+	public int distance;
+
+	private GameObject firstObject;
+	private GameObject secondObject;
+
+	@Setup
+	public void createObjects() {
+		firstObject = new MaskObject(0, 0, first.createMask());
+		secondObject = new MaskObject(distance, distance, second.createMask());
+	}
+
+	@Benchmark
+	public boolean isCollidedWith() {
+		return firstObject.isCollidedWith(secondObject);
+	}
+
+	public static enum MaskType {
+		RECTANGLE {
+			@Override
+			public CollisionMask<?> createMask() {
+				return new MaskRectangle(16, 16);
+			}
+		},
+		/** The shape of a spike */
+		POLYGON {
+			@Override
+			public CollisionMask<?> createMask() {
+				return new MaskPolygon(new int[] { 0, 16, 8 }, new int[] { 16, 16, 0 }, 3);
+			}
+		},
+		ELLIPSE {
+			@Override
+			public CollisionMask<?> createMask() {
+				return new MaskEllipse(16, 16);
+			}
+		};
+
+		public abstract CollisionMask<?> createMask();
+	}
+
+	/** An object which does nothing except have a collision mask */
+	public static class MaskObject extends GameObject {
+		public MaskObject(double x, double y, CollisionMask<?> mask) {
+			super(x, y);
+			setCollisionMask(mask);
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package net.earthcomputer.stepfish.benchmark;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.earthcomputer.stepfish.HeadlessSimulation;
+import net.earthcomputer.stepfish.HeadlessSimulation.IInputScript;
+import net.earthcomputer.stepfish.LevelRenderer;
+import net.earthcomputer.stepfish.MainWindow;
+import net.earthcomputer.stepfish.World;
+import net.earthcomputer.stepfish.object.PlayerObject;
+import net.earthcomputer.stepfish.util.ScriptedInput;
+
+/**
+ * Measures drawing a level into an offscreen buffer the size of the window's,
+ * with the view on the first player, the way the main window draws it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DrawBenchmark {
+
+	@Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "synthetic-10000", "synthetic-100000" })
+	public String level;
+
+	private final BufferedImage buffer = new BufferedImage(MainWindow.BUFFER_WIDTH, MainWindow.BUFFER_HEIGHT,
+			BufferedImage.TYPE_INT_RGB);
+	private Graphics graphics;
+	private final LevelRenderer renderer = new LevelRenderer();
+	private World world;
+	private int cameraX;
+	private int cameraY;
+
+	@Setup
+	public void loadLevel() throws Exception {
+		HeadlessSimulation simulation = new HeadlessSimulation(BenchmarkLevels.load(level), new IInputScript() {
+			@Override
+			public void updateInput(int tick, World world, ScriptedInput input) {
+			}
+		});
+		simulation.start();
+		world = simulation.getWorld();
+
+		List<PlayerObject> players = world.listObjects(PlayerObject.class);
+		if (!players.isEmpty()) {
+			PlayerObject player = players.get(0);
+			cameraX = Math.max(0, Math.min(world.getWidth() - MainWindow.BUFFER_WIDTH,
+					(int) player.getX() + 8 - MainWindow.BUFFER_WIDTH / 2));
+			cameraY = Math.max(0, Math.min(world.getHeight() - MainWindow.BUFFER_HEIGHT,
+					(int) player.getY() + 8 - MainWindow.BUFFER_HEIGHT / 2));
+		}
+		graphics = buffer.createGraphics();
+	}
+
+	@TearDown
+	public void disposeGraphics() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage draw() {
+		renderer.draw(graphics, world, cameraX, cameraY, 1);
+		return buffer;
+	}
+
+}
@@ -0,0 +1,74 @@
+package net.earthcomputer.stepfish.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.earthcomputer.stepfish.ChunkedLevelFormat;
+import net.earthcomputer.stepfish.Level;
+import net.earthcomputer.stepfish.Levels;
+
+/**
+ * Compares reading a large level file by memory-mapping it with reading it
+ * through a stream
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LevelFileBenchmark {
+
+	@Param({ "synthetic-100000" })
+	public String level;
+
+	@Param({ "false", "true" })
+	public boolean deflate;
+
+	private File file;
+
+	@Setup
+	public void setUp() throws Exception {
+		file = File.createTempFile("benchmark", ".gglevel");
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			ChunkedLevelFormat.write(BenchmarkLevels.load(level), output, deflate);
+		} finally {
+			output.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public Level loadMapped() throws Exception {
+		return Levels.loadLevel(file);
+	}
+
+	@Benchmark
+	public Level loadStream() throws Exception {
+		InputStream input = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return Levels.loadLevel(input);
+		} finally {
+			input.close();
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package net.earthcomputer.stepfish.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.earthcomputer.stepfish.Level;
+import net.earthcomputer.stepfish.Levels;
+
+/** Measures {@link Levels#loadLevel(int)} for each bundled level */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LevelLoadBenchmark {
+
+	@Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8", "9" })
+	public int level;
+
+	@Setup
+	public void setUp() {
+		BenchmarkLevels.setUp();
+	}
+
+	@Benchmark
+	public Level loadLevel() throws Exception {
+		return Levels.loadLevel(level);
+	}
+
+}
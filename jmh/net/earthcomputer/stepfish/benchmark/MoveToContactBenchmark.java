@@ -0,0 +1,92 @@
+package net.earthcomputer.stepfish.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.earthcomputer.stepfish.HeadlessSimulation;
+import net.earthcomputer.stepfish.HeadlessSimulation.IInputScript;
+import net.earthcomputer.stepfish.Level;
+import net.earthcomputer.stepfish.Level.LevelObject;
+import net.earthcomputer.stepfish.Levels;
+import net.earthcomputer.stepfish.World;
+import net.earthcomputer.stepfish.geom.Velocity;
+import net.earthcomputer.stepfish.geom.collision.MaskRectangle;
+import net.earthcomputer.stepfish.geom.collision.MoveToContactHelper;
+import net.earthcomputer.stepfish.object.PhysicsObject;
+import net.earthcomputer.stepfish.object.WallObject;
+import net.earthcomputer.stepfish.util.GameObjectCreator;
+import net.earthcomputer.stepfish.util.ScriptedInput;
+
+/**
+ * Measures {@link MoveToContactHelper#moveToContact()} for an object moving
+ * into the corner of a floor and a wall at different speeds
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MoveToContactBenchmark {
+
+	private static final int FLOOR_Y = 160;
+	private static final int WALL_X = 160;
+
+	/** How far the object moves in each direction in the tick */
+	@Param({ "2", "10", "30" })
+	public int speed;
+
+	private MovingObject object;
+
+	@Setup
+	public void createWorld() {
+		BenchmarkLevels.setUp();
+		LevelObject[] objects = new LevelObject[20];
+		for (int i = 0; i < 10; i++) {
+			objects[i] = new LevelObject(i * 16 + 80, FLOOR_Y, 1);
+			objects[10 + i] = new LevelObject(WALL_X, i * 16, 1);
+		}
+		Level level = Levels.createLevel("moveToContact", 320, 320, objects);
+		HeadlessSimulation simulation = new HeadlessSimulation(level, new IInputScript() {
+			@Override
+			public void updateInput(int tick, World world, ScriptedInput input) {
+			}
+		});
+		simulation.start();
+		World world = simulation.getWorld();
+		object = world.addObject(0, 0, new GameObjectCreator<MovingObject>() {
+			@Override
+			public MovingObject create(double x, double y) {
+				return new MovingObject(x, y);
+			}
+		});
+		world.runScheduledTasks();
+	}
+
+	@Benchmark
+	public double moveToContact() {
+		// Start just outside the corner, so the object ends up inside both the
+		// floor and the wall
+		object.setX(WALL_X - 16 - speed / 2);
+		object.setY(FLOOR_Y - 16 - speed / 2);
+		object.setVelocity(Velocity.createFromXAndYComponents(speed, speed));
+		object.update();
+		object.moveToContactHelper.moveToContact();
+		return object.getX() + object.getY();
+	}
+
+	public static class MovingObject extends PhysicsObject {
+		private final MoveToContactHelper moveToContactHelper = new MoveToContactHelper(this, WallObject.class);
+
+		public MovingObject(double x, double y) {
+			super(x, y);
+			setCollisionMask(new MaskRectangle(16, 16));
+		}
+	}
+
+}
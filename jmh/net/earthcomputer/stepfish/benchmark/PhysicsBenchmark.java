@@ -0,0 +1,104 @@
+package net.earthcomputer.stepfish.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.earthcomputer.stepfish.HeadlessSimulation;
+import net.earthcomputer.stepfish.HeadlessSimulation.IInputScript;
+import net.earthcomputer.stepfish.Level;
+import net.earthcomputer.stepfish.Level.LevelObject;
+import net.earthcomputer.stepfish.Levels;
+import net.earthcomputer.stepfish.World;
+import net.earthcomputer.stepfish.geom.Velocity;
+import net.earthcomputer.stepfish.geom.collision.MaskRectangle;
+import net.earthcomputer.stepfish.object.PhysicsObject;
+import net.earthcomputer.stepfish.util.GameObjectCreator;
+import net.earthcomputer.stepfish.util.ScriptedInput;
+
+/**
+ * Measures the update of a world full of physics objects which only move and
+ * fall, up to a terminal velocity, wrapping around the level so that they stay in it, with each object
+ * moving itself or with them all moved together in the world's physics store
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PhysicsBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int bodies;
+
+	@Param({ "false", "true" })
+	public boolean batchPhysics;
+
+	private static final int SIZE = 1024;
+
+	private World world;
+
+	@Setup
+	public void createWorld() {
+		BenchmarkLevels.setUp();
+		Level level = Levels.createLevel("physics", SIZE, SIZE, new LevelObject[0]);
+		HeadlessSimulation simulation = new HeadlessSimulation(level, new IInputScript() {
+			@Override
+			public void updateInput(int tick, World world, ScriptedInput input) {
+			}
+		});
+		world = simulation.getWorld();
+		world.setBatchPhysics(batchPhysics);
+		simulation.start();
+
+		final Random rand = new Random(0);
+		final Velocity gravity = Velocity.createFromSpeedAndDirection(1, 90);
+		GameObjectCreator<WrappingObject> creator = new GameObjectCreator<WrappingObject>() {
+			@Override
+			public WrappingObject create(double x, double y) {
+				WrappingObject object = new WrappingObject(x, y);
+				object.setXVelocity(rand.nextFloat() * 10 - 5);
+				object.setYVelocity(rand.nextFloat() * 10 - 5);
+				object.setGravity(gravity);
+				object.setTerminalVelocity(10);
+				object.setCollisionMask(new MaskRectangle(16, 16));
+				return object;
+			}
+		};
+		for (int i = 0; i < bodies; i++) {
+			world.addObject(rand.nextInt(SIZE), rand.nextInt(SIZE), creator);
+		}
+		world.runScheduledTasks();
+	}
+
+	@Benchmark
+	public void update() {
+		world.updateObjects();
+	}
+
+	private static class WrappingObject extends PhysicsObject {
+		public WrappingObject(double x, double y) {
+			super(x, y);
+		}
+
+		@Override
+		public void update() {
+			super.update();
+			if (getX() < 0 || getX() >= SIZE) {
+				setX(getX() - Math.floor(getX() / SIZE) * SIZE);
+			}
+			if (getY() >= SIZE) {
+				// Start falling again from the top
+				setY(getY() - SIZE);
+				setYVelocity(0);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package net.earthcomputer.stepfish.benchmark;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.earthcomputer.stepfish.HeadlessSimulation;
+import net.earthcomputer.stepfish.HeadlessSimulation.IInputScript;
+import net.earthcomputer.stepfish.Stepfish;
+import net.earthcomputer.stepfish.World;
+import net.earthcomputer.stepfish.util.ScriptedInput;
+
+/**
+ * Measures a whole tick of a level, with the players walking right and
+ * jumping. The world is used directly, as the main window's tick also needs a
+ * display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TickBenchmark {
+
+	@Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "synthetic-10000", "synthetic-100000" })
+	public String level;
+
+	/**
+	 * The number of threads to update objects with, or 1 to update serially
+	 * without a pool
+	 */
+	@Param({ "1" })
+	public int updateThreads;
+
+	/** Whether the physics objects are moved together in the world's physics store */
+	@Param({ "false" })
+	public boolean batchPhysics;
+
+	private HeadlessSimulation simulation;
+
+	@Setup(org.openjdk.jmh.annotations.Level.Trial)
+	public void loadLevel() throws Exception {
+		simulation = new HeadlessSimulation(BenchmarkLevels.load(level), new IInputScript() {
+			@Override
+			public void updateInput(int tick, World world, ScriptedInput input) {
+				input.setKeyDown("moveRight", true);
+				input.setKeyDown("jump", tick % Stepfish.TICKRATE == 0);
+			}
+		});
+		if (updateThreads > 1) {
+			simulation.getWorld().setUpdatePool(new ForkJoinPool(updateThreads));
+		}
+		simulation.getWorld().setBatchPhysics(batchPhysics);
+	}
+
+	/**
+	 * Restarts the level every iteration, so that iterations don't only
+	 * measure levels which have already been failed
+	 */
+	@Setup(org.openjdk.jmh.annotations.Level.Iteration)
+	public void restartLevel() {
+		simulation.start();
+	}
+
+	@Benchmark
+	public void tick() {
+		simulation.tick();
+	}
+
+}
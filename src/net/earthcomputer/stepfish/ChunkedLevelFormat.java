@@ -0,0 +1,417 @@
+package net.earthcomputer.stepfish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.earthcomputer.stepfish.Level.LevelObject;
+import net.earthcomputer.stepfish.Levels.LevelFormatException;
+
+/**
+ * Reads and writes version 1 of the level format, described in
+ * docs/level_format.txt. The level is split into square chunks of tiles, each
+ * stored separately and listed in a directory after the header, so any chunk
+ * can be found without reading the ones before it. A chunk holds its rows of
+ * tiles as runs of the same tile, followed by the objects which aren't on the
+ * tile grid, and may be deflated.
+ */
+public class ChunkedLevelFormat {
+
+	public static final int VERSION = 1;
+	/** The width and height of a chunk written by this class, in tiles */
+	public static final int DEFAULT_CHUNK_TILES = LevelStreamer.CHUNK_SIZE / TileMap.TILE_SIZE;
+
+	/** Set in a chunk's flags if its data is deflated */
+	private static final int CHUNK_DEFLATED = 0x1;
+	/** The size of a directory entry: u1 flags, u4 offset, u4 data length, u4 raw length */
+	static final int DIRECTORY_ENTRY_SIZE = 13;
+	/**
+	 * The most a stream is read at once when a length comes from the level, so
+	 * that a broken length can't allocate much more than the stream holds
+	 */
+	private static final int READ_BLOCK_SIZE = 64 * 1024;
+	/** Deflate can't compress data to less than about a 1032nd of its size */
+	private static final int MAX_DEFLATE_RATIO = 1032;
+
+	private ChunkedLevelFormat() {
+	}
+
+	/**
+	 * Reads the rest of a version 1 level, after the magic and version, from a
+	 * stream
+	 */
+	static Level read(DataInputStream input) throws LevelFormatException, IOException {
+		Header header = Header.read(input);
+
+		byte[] directory = readBytes(input, header.getChunkCount() * DIRECTORY_ENTRY_SIZE);
+		ByteBuffer directoryBuffer = ByteBuffer.wrap(directory);
+		int dataLength = 0;
+		for (int chunk = 0; chunk < header.getChunkCount(); chunk++) {
+			dataLength = Math.max(dataLength, getDataEnd(directoryBuffer, chunk));
+		}
+		byte[] data = readBytes(input, dataLength);
+
+		return read(header, directoryBuffer, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Reads the given number of bytes, where the number came from the level so
+	 * can't be trusted. The length of a stream isn't known, so rather than
+	 * allocating the whole array up front, it grows as the bytes arrive, and
+	 * the level is rejected if the stream ends first
+	 */
+	private static byte[] readBytes(DataInputStream input, int length) throws LevelFormatException, IOException {
+		byte[] bytes = new byte[Math.min(length, READ_BLOCK_SIZE)];
+		int read = 0;
+		while (read < length) {
+			if (read == bytes.length)
+				bytes = Arrays.copyOf(bytes, (int) Math.min(length, (long) bytes.length * 2));
+			int count = input.read(bytes, read, bytes.length - read);
+			if (count < 0)
+				throw new LevelFormatException();
+			read += count;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads the rest of a version 1 level from a buffer. The header is read
+	 * through the stream, which must read from the buffer, and the chunks are
+	 * read straight out of the buffer
+	 */
+	static Level read(DataInputStream input, ByteBuffer buffer) throws LevelFormatException, IOException {
+		Header header = Header.read(input);
+
+		int directoryLength = header.getChunkCount() * DIRECTORY_ENTRY_SIZE;
+		if (directoryLength > buffer.remaining())
+			throw new LevelFormatException();
+		ByteBuffer directory = buffer.slice();
+		directory.limit(directoryLength);
+		buffer.position(buffer.position() + directoryLength);
+		ByteBuffer data = buffer.slice();
+
+		return read(header, directory, data);
+	}
+
+	/**
+	 * Reads every chunk of a level, given its header, its directory and its
+	 * chunk data, with each chunk's offset counted from the start of the data
+	 * buffer
+	 */
+	static Level read(Header header, ByteBuffer directory, ByteBuffer data) throws LevelFormatException {
+		short[] tiles = new short[header.tileColumns * header.tileRows];
+		List<LevelObject> objects = new ArrayList<LevelObject>();
+		ChunkInflater inflater = new ChunkInflater();
+		try {
+			for (int chunk = 0; chunk < header.getChunkCount(); chunk++) {
+				readChunk(header, chunk, getChunkData(directory, data, chunk, inflater), tiles, objects);
+			}
+		} finally {
+			inflater.end();
+		}
+		return new Level(header.name, header.width, header.height, tiles,
+				objects.toArray(new LevelObject[objects.size()]));
+	}
+
+	/**
+	 * Returns the end of the given chunk's data, relative to the start of the
+	 * chunk data
+	 */
+	private static int getDataEnd(ByteBuffer directory, int chunk) throws LevelFormatException {
+		int entry = chunk * DIRECTORY_ENTRY_SIZE;
+		long end = (directory.getInt(entry + 1) & 0xffffffffL) + (directory.getInt(entry + 5) & 0xffffffffL);
+		if (end > Integer.MAX_VALUE)
+			throw new LevelFormatException();
+		return (int) end;
+	}
+
+	/**
+	 * Returns the raw data of the given chunk, inflating it if necessary. The
+	 * inflated data is only valid until the next chunk is inflated
+	 */
+	private static ByteBuffer getChunkData(ByteBuffer directory, ByteBuffer data, int chunk, ChunkInflater inflater)
+			throws LevelFormatException {
+		int entry = chunk * DIRECTORY_ENTRY_SIZE;
+		int flags = directory.get(entry) & 0xff;
+		int offset = directory.getInt(entry + 1);
+		int dataLength = directory.getInt(entry + 5);
+		int rawLength = directory.getInt(entry + 9);
+		if (offset < 0 || dataLength < 0 || rawLength < 0 || offset > data.limit() - dataLength)
+			throw new LevelFormatException();
+		// The raw length sizes the buffer the chunk is inflated into
+		if (rawLength > (long) dataLength * MAX_DEFLATE_RATIO)
+			throw new LevelFormatException();
+
+		ByteBuffer chunkData = data.duplicate();
+		chunkData.limit(offset + dataLength);
+		chunkData.position(offset);
+		if ((flags & CHUNK_DEFLATED) == 0) {
+			if (dataLength != rawLength)
+				throw new LevelFormatException();
+			return chunkData.slice();
+		}
+		return inflater.inflate(chunkData, rawLength);
+	}
+
+	/**
+	 * Reads the tiles of a chunk into the level's tiles, and adds its objects
+	 * to the list
+	 */
+	private static void readChunk(Header header, int chunk, ByteBuffer data, short[] tiles, List<LevelObject> objects)
+			throws LevelFormatException {
+		int firstColumn = header.getFirstColumn(chunk);
+		int firstRow = header.getFirstRow(chunk);
+		int columns = Math.min(header.chunkTiles, header.tileColumns - firstColumn);
+		int rows = Math.min(header.chunkTiles, header.tileRows - firstRow);
+		try {
+			for (int row = 0; row < rows; row++) {
+				int index = (firstRow + row) * header.tileColumns + firstColumn;
+				int end = index + columns;
+				int runCount = data.getShort() & 0xffff;
+				for (int run = 0; run < runCount; run++) {
+					int length = data.getShort() & 0xffff;
+					short tile = data.getShort();
+					if (length > end - index)
+						throw new LevelFormatException();
+					Arrays.fill(tiles, index, index + length, tile);
+					index += length;
+				}
+				if (index != end)
+					throw new LevelFormatException();
+			}
+
+			int objectCount = data.getInt();
+			if (objectCount < 0 || objectCount > data.remaining() / 10)
+				throw new LevelFormatException();
+			for (int i = 0; i < objectCount; i++) {
+				int x = data.getInt();
+				int y = data.getInt();
+				int id = data.getShort() & 0xffff;
+				objects.add(new LevelObject(x, y, id));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new LevelFormatException();
+		}
+		if (data.hasRemaining())
+			throw new LevelFormatException();
+	}
+
+	/**
+	 * Writes a level in version 1 of the format, including the magic and
+	 * version. Each chunk is deflated if deflate is true and that makes it
+	 * smaller
+	 */
+	public static void write(Level level, OutputStream output, boolean deflate) throws IOException {
+		Header header = new Header(level.name, level.width, level.height, DEFAULT_CHUNK_TILES);
+		int chunkCount = header.getChunkCount();
+
+		// Objects keep their order within each chunk
+		List<List<LevelObject>> objectsByChunk = new ArrayList<List<LevelObject>>(chunkCount);
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			objectsByChunk.add(new ArrayList<LevelObject>());
+		}
+		int chunkSize = header.chunkTiles * TileMap.TILE_SIZE;
+		for (LevelObject object : level.objects) {
+			// Objects outside the level go in the nearest chunk
+			int chunkX = (int) Math.floor((double) object.x / chunkSize);
+			int chunkY = (int) Math.floor((double) object.y / chunkSize);
+			chunkX = Math.max(0, Math.min(header.chunkColumns - 1, chunkX));
+			chunkY = Math.max(0, Math.min(header.chunkRows - 1, chunkY));
+			objectsByChunk.get(chunkY * header.chunkColumns + chunkX).add(object);
+		}
+
+		ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream(chunkCount * DIRECTORY_ENTRY_SIZE);
+		DataOutputStream directory = new DataOutputStream(directoryBytes);
+		ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream rawBytes = new ByteArrayOutputStream();
+		DataOutputStream raw = new DataOutputStream(rawBytes);
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		byte[] buffer = new byte[4096];
+		try {
+			for (int chunk = 0; chunk < chunkCount; chunk++) {
+				rawBytes.reset();
+				writeChunk(header, chunk, level, objectsByChunk.get(chunk), raw);
+				byte[] rawData = rawBytes.toByteArray();
+
+				byte[] chunkData = rawData;
+				int flags = 0;
+				if (deflate) {
+					deflater.reset();
+					deflater.setInput(rawData);
+					deflater.finish();
+					ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+					while (!deflater.finished()) {
+						deflated.write(buffer, 0, deflater.deflate(buffer));
+					}
+					if (deflated.size() < rawData.length) {
+						chunkData = deflated.toByteArray();
+						flags |= CHUNK_DEFLATED;
+					}
+				}
+
+				directory.writeByte(flags);
+				directory.writeInt(dataBytes.size());
+				directory.writeInt(chunkData.length);
+				directory.writeInt(rawData.length);
+				dataBytes.write(chunkData);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		DataOutputStream dataOutput = new DataOutputStream(output);
+		dataOutput.writeInt(Levels.MAGIC);
+		dataOutput.writeByte(VERSION);
+		header.write(dataOutput);
+		directoryBytes.writeTo(dataOutput);
+		dataBytes.writeTo(dataOutput);
+		dataOutput.flush();
+	}
+
+	private static void writeChunk(Header header, int chunk, Level level, List<LevelObject> objects,
+			DataOutputStream output) throws IOException {
+		int firstColumn = header.getFirstColumn(chunk);
+		int firstRow = header.getFirstRow(chunk);
+		int columns = Math.min(header.chunkTiles, header.tileColumns - firstColumn);
+		int rows = Math.min(header.chunkTiles, header.tileRows - firstRow);
+		short[] tiles = level.tiles;
+		for (int row = 0; row < rows; row++) {
+			int start = (firstRow + row) * header.tileColumns + firstColumn;
+			int end = start + columns;
+
+			int runCount = 0;
+			for (int index = start; index < end; index++) {
+				if (index == start || tiles[index] != tiles[index - 1])
+					runCount++;
+			}
+			output.writeShort(runCount);
+			int runStart = start;
+			for (int index = start + 1; index <= end; index++) {
+				if (index == end || tiles[index] != tiles[runStart]) {
+					output.writeShort(index - runStart);
+					output.writeShort(tiles[runStart]);
+					runStart = index;
+				}
+			}
+		}
+
+		output.writeInt(objects.size());
+		for (LevelObject object : objects) {
+			output.writeInt(object.x);
+			output.writeInt(object.y);
+			output.writeShort(object.id);
+		}
+	}
+
+	/**
+	 * Inflates chunks into a buffer which is reused for each chunk, so that
+	 * reading a level doesn't allocate for every chunk
+	 */
+	private static class ChunkInflater {
+
+		private final Inflater inflater = new Inflater();
+		/** Deflated data is copied here if it isn't in an array already */
+		private byte[] input = new byte[0];
+		private byte[] output = new byte[0];
+
+		/** Inflates the remaining bytes of the given buffer */
+		ByteBuffer inflate(ByteBuffer deflated, int rawLength) throws LevelFormatException {
+			int length = deflated.remaining();
+			inflater.reset();
+			if (deflated.hasArray()) {
+				inflater.setInput(deflated.array(), deflated.arrayOffset() + deflated.position(), length);
+			} else {
+				if (input.length < length)
+					input = new byte[Math.max(length, input.length * 2)];
+				deflated.get(input, 0, length);
+				inflater.setInput(input, 0, length);
+			}
+
+			if (output.length < rawLength)
+				output = new byte[Math.max(rawLength, output.length * 2)];
+			try {
+				if (inflater.inflate(output, 0, rawLength) != rawLength || !inflater.finished())
+					throw new LevelFormatException();
+			} catch (DataFormatException e) {
+				throw new LevelFormatException();
+			}
+			return ByteBuffer.wrap(output, 0, rawLength).slice();
+		}
+
+		void end() {
+			inflater.end();
+		}
+
+	}
+
+	/** The part of a version 1 level between the version and the chunk directory */
+	static class Header {
+
+		final String name;
+		final int width;
+		final int height;
+		/** The width and height of each chunk, in tiles */
+		final int chunkTiles;
+		final int tileColumns;
+		final int tileRows;
+		final int chunkColumns;
+		final int chunkRows;
+
+		Header(String name, int width, int height, int chunkTiles) {
+			this.name = name;
+			this.width = width;
+			this.height = height;
+			this.chunkTiles = chunkTiles;
+			this.tileColumns = Level.getTileColumns(width);
+			this.tileRows = Level.getTileRows(height);
+			this.chunkColumns = Math.max(1, (tileColumns + chunkTiles - 1) / chunkTiles);
+			this.chunkRows = Math.max(1, (tileRows + chunkTiles - 1) / chunkTiles);
+		}
+
+		static Header read(DataInputStream input) throws LevelFormatException, IOException {
+			String name = input.readUTF();
+			int width = input.readInt();
+			int height = input.readInt();
+			int chunkTiles = input.readUnsignedByte();
+			if (width < 0 || height < 0 || chunkTiles == 0)
+				throw new LevelFormatException();
+			Header header = new Header(name, width, height, chunkTiles);
+			// Don't let a broken header overflow the tile or directory sizes
+			if ((long) header.tileColumns * header.tileRows > Integer.MAX_VALUE
+					|| (long) header.chunkColumns * header.chunkRows > Integer.MAX_VALUE / DIRECTORY_ENTRY_SIZE)
+				throw new LevelFormatException();
+			return header;
+		}
+
+		void write(DataOutputStream output) throws IOException {
+			output.writeUTF(name);
+			output.writeInt(width);
+			output.writeInt(height);
+			output.writeByte(chunkTiles);
+		}
+
+		int getChunkCount() {
+			return chunkColumns * chunkRows;
+		}
+
+		int getFirstColumn(int chunk) {
+			return chunk % chunkColumns * chunkTiles;
+		}
+
+		int getFirstRow(int chunk) {
+			return chunk / chunkColumns * chunkTiles;
+		}
+
+	}
+
+}
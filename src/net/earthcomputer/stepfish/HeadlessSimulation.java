@@ -0,0 +1,240 @@
+package net.earthcomputer.stepfish;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import net.earthcomputer.stepfish.object.GameObject;
+import net.earthcomputer.stepfish.object.ObjectTypes;
+import net.earthcomputer.stepfish.object.PlayerObject;
+import net.earthcomputer.stepfish.profiler.TickProfiler;
+import net.earthcomputer.stepfish.util.InputLog;
+import net.earthcomputer.stepfish.util.ScriptedInput;
+
+/**
+ * Plays a level without a window, sound or keyboard, with the input coming
+ * from a script or played back from an {@link InputLog}. Ticks are run as fast
+ * as possible rather than at the game's tick rate.
+ *
+ * Running the main method plays every level, or the level files given after
+ * the number of runs and ticks, with a simple script and prints how fast the
+ * simulation ran. Setting the tick profiler's system properties profiles it,
+ * setting {@value World#PARALLEL_UPDATES_PROPERTY} updates in parallel, and
+ * setting {@value World#BATCH_PHYSICS_PROPERTY} moves physics objects together.
+ */
+public class HeadlessSimulation implements IWorldListener {
+
+	private final Level level;
+	/** Null when playing back a log */
+	private final IInputScript script;
+	private final ScriptedInput input;
+	/** Null when following a script */
+	private final InputLog.Player playback;
+	private final World world;
+
+	private EnumOutcome outcome;
+	private final boolean[] starsCollected = new boolean[3];
+	/** The stars which count as obtained in an earlier run, as if from a profile */
+	private final boolean[] starsObtained = new boolean[3];
+	private int ticksRun;
+
+	public HeadlessSimulation(Level level, IInputScript script) {
+		this.level = level;
+		this.script = script;
+		this.input = new ScriptedInput();
+		this.playback = null;
+		this.world = new World(this, input);
+	}
+
+	/**
+	 * Creates a simulation which plays back the given log, one tick of the log
+	 * per tick of the simulation
+	 */
+	public HeadlessSimulation(Level level, InputLog log) {
+		this.level = level;
+		this.script = null;
+		this.input = null;
+		this.playback = log.play();
+		this.world = new World(this, playback);
+	}
+
+	/**
+	 * Plays the level until it is completed or failed, or until the given
+	 * number of ticks have passed
+	 */
+	public EnumOutcome run(int maxTicks) {
+		start();
+		while (ticksRun < maxTicks && outcome == null) {
+			tick();
+		}
+		return outcome == null ? EnumOutcome.TIMED_OUT : outcome;
+	}
+
+	/**
+	 * Loads the level, or restarts it if it has been played already, ready to
+	 * start ticking
+	 */
+	public void start() {
+		outcome = null;
+		Arrays.fill(starsCollected, false);
+		ticksRun = 0;
+		if (playback == null) {
+			input.releaseAll();
+			input.updateTick();
+		} else {
+			playback.rewind();
+		}
+		if (world.getLevel() == level) {
+			world.restartLevel();
+		} else {
+			world.loadLevel(level);
+		}
+		world.runScheduledTasks();
+	}
+
+	/**
+	 * Runs a single tick. Ticks carry on being run after the level has been
+	 * completed or failed, if this is called
+	 */
+	public void tick() {
+		if (playback == null) {
+			script.updateInput(ticksRun, world, input);
+			input.updateTick();
+		} else {
+			playback.updateTick();
+		}
+		world.tick();
+		ticksRun++;
+	}
+
+	/**
+	 * Returns how the level ended, or null if it hasn't ended since it was
+	 * started
+	 */
+	public EnumOutcome getOutcome() {
+		return outcome;
+	}
+
+	public World getWorld() {
+		return world;
+	}
+
+	/** Returns the number of ticks run since the level was started */
+	public int getTicksRun() {
+		return ticksRun;
+	}
+
+	public boolean isStarCollected(int index) {
+		return starsCollected[index];
+	}
+
+	/**
+	 * Sets whether a star counts as obtained in an earlier run, in which case
+	 * it isn't in the level when it starts, as in the game. None are by default
+	 */
+	public void setStarObtained(int index, boolean obtained) {
+		starsObtained[index] = obtained;
+	}
+
+	@Override
+	public void onLevelFailed(PlayerObject player, GameObject cause) {
+		if (outcome == null)
+			outcome = EnumOutcome.FAILED;
+	}
+
+	@Override
+	public void onLevelCompleted() {
+		if (outcome == null)
+			outcome = EnumOutcome.COMPLETED;
+	}
+
+	@Override
+	public void onStarCollected(int index) {
+		starsCollected[index] = true;
+	}
+
+	@Override
+	public boolean isStarObtained(int index) {
+		return starsObtained[index];
+	}
+
+	@Override
+	public void onPauseRequested() {
+	}
+
+	@Override
+	public void playSound(String name) {
+	}
+
+	/** Decides the input for each tick of a simulation */
+	public static interface IInputScript {
+		/**
+		 * Called at the start of each tick to change which key bindings are held
+		 * down
+		 */
+		void updateInput(int tick, World world, ScriptedInput input);
+	}
+
+	public static enum EnumOutcome {
+		COMPLETED, FAILED, TIMED_OUT
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		ObjectTypes.registerTypes();
+
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int maxTicks = args.length > 1 ? Integer.parseInt(args[1]) : 60 * Stepfish.TICKRATE;
+
+		// Walk right, jumping every second
+		IInputScript script = new IInputScript() {
+			@Override
+			public void updateInput(int tick, World world, ScriptedInput input) {
+				input.setKeyDown("moveRight", true);
+				input.setKeyDown("jump", tick % Stepfish.TICKRATE == 0);
+			}
+		};
+
+		TickProfiler profiler = TickProfiler.createIfEnabled();
+		ForkJoinPool updatePool = World.createUpdatePoolIfEnabled();
+
+		// Any further arguments are level files to run instead of the bundled
+		// levels
+		List<Level> levels = new ArrayList<Level>();
+		if (args.length > 2) {
+			for (int i = 2; i < args.length; i++) {
+				levels.add(Levels.loadLevel(new File(args[i])));
+			}
+		} else {
+			for (int levelId = 0; levelId < Levels.getLevelCount(); levelId++) {
+				levels.add(Levels.loadLevel(levelId));
+			}
+		}
+
+		long totalTicks = 0;
+		long startTime = System.nanoTime();
+		for (Level level : levels) {
+			HeadlessSimulation simulation = new HeadlessSimulation(level, script);
+			simulation.getWorld().setProfiler(profiler);
+			simulation.getWorld().setUpdatePool(updatePool);
+			EnumOutcome outcome = null;
+			for (int i = 0; i < runs; i++) {
+				outcome = simulation.run(maxTicks);
+				totalTicks += simulation.getTicksRun();
+			}
+			System.out.println(level.name + ": " + outcome + " after " + simulation.getTicksRun() + " ticks");
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.printf("Ran %d ticks in %.2f seconds (%.0f ticks per second)%n", totalTicks, seconds,
+				totalTicks / seconds);
+		if (profiler != null) {
+			System.out.printf("Tick time p50 %.3f ms, p99 %.3f ms, max %.3f ms%n", profiler.getTickTimeP50(),
+					profiler.getTickTimeP99(), profiler.getTickTimeMax());
+			System.out.println("Section p99 times (ms): " + profiler.getSectionTimesP99());
+			System.out.println("Collision queries: " + profiler.getCollisionQueries());
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package net.earthcomputer.stepfish;
+
+/**
+ * An update listener which may be updated at the same time as other parallel
+ * update listeners, when the world updates in parallel. Consecutive parallel
+ * update listeners are updated as a batch whether or not the world has a pool
+ * to update in parallel with, so the rules below give the same result either
+ * way.
+ *
+ * An update may read anything in the world, and may move or change the
+ * object being updated, but must not change any other object directly. Changes
+ * made through the world, such as adding and removing objects, failing the
+ * level and playing sounds, and any other changes passed to
+ * {@link World#runEffect(Runnable)}, are held back until the whole batch of
+ * parallel updates has finished, then made in update order. This means that
+ * nothing outside the batch changes while it runs.
+ *
+ * The other objects in the batch are being updated on other threads at the
+ * same time, and nothing protects their state while they are. An update must
+ * not read the mutable state of other parallel update listeners, including
+ * through collision queries, so it should only query for objects which aren't
+ * parallel update listeners, such as players and walls. Collision queries
+ * filter before reading an object's mask, so a filter which rejects the other
+ * listeners by their type is enough.
+ *
+ * With assertions enabled, the world checks that an update only moves its own
+ * object and only queries for objects which aren't other parallel update
+ * listeners.
+ */
+public interface IParallelUpdateListener extends IUpdateListener
+{
+	
+}
@@ -0,0 +1,13 @@
+package net.earthcomputer.stepfish;
+
+import net.earthcomputer.stepfish.object.GameObject;
+
+/** Receives the tiles found by a query on a {@link TileMap}, without an object having to be created for each of them */
+public interface ITileVisitor
+{
+	
+	/** Called for each tile found, with the prototype object of its type. Returns whether to carry on looking for
+	 * more tiles */
+	boolean visitTile(GameObject prototype, int column, int row);
+	
+}
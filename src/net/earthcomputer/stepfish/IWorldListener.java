@@ -0,0 +1,29 @@
+package net.earthcomputer.stepfish;
+
+import net.earthcomputer.stepfish.object.GameObject;
+import net.earthcomputer.stepfish.object.PlayerObject;
+
+/** Receives the events of a {@link World} which affect the game outside the level, so that the world itself doesn't
+ * depend on a window */
+public interface IWorldListener
+{
+	
+	/** Called when a player dies. cause may be null */
+	void onLevelFailed(PlayerObject player, GameObject cause);
+	
+	/** Called when a player reaches the exit */
+	void onLevelCompleted();
+	
+	/** Called when a player collects the star with the given index */
+	void onStarCollected(int index);
+	
+	/** Returns whether the star with the given index has already been collected in a previous playthrough */
+	boolean isStarObtained(int index);
+	
+	/** Called when a player asks to pause the game */
+	void onPauseRequested();
+	
+	/** Called when something in the world makes a sound */
+	void playSound(String name);
+	
+}
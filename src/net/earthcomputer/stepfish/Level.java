@@ -6,16 +6,36 @@ public class Level
 	public final String name;
 	public final int width;
 	public final int height;
+	/** The number of columns and rows of tiles in {@link #tiles} */
+	public final int tileColumns;
+	public final int tileRows;
+	/** The ids of the static objects on the tile grid, plus one. 0 means there is no tile */
+	public final short[] tiles;
+	/** The objects which aren't on the tile grid */
 	public final LevelObject[] objects;
 	
-	public Level(String name, int width, int height, LevelObject[] objects)
+	public Level(String name, int width, int height, short[] tiles, LevelObject[] objects)
 	{
 		this.width = width;
 		this.height = height;
 		this.name = name;
+		this.tileColumns = getTileColumns(width);
+		this.tileRows = getTileRows(height);
+		if(tiles.length != tileColumns * tileRows) throw new IllegalArgumentException("Wrong number of tiles");
+		this.tiles = tiles;
 		this.objects = objects;
 	}
 	
+	public static int getTileColumns(int width)
+	{
+		return (width + TileMap.TILE_SIZE - 1) / TileMap.TILE_SIZE;
+	}
+	
+	public static int getTileRows(int height)
+	{
+		return (height + TileMap.TILE_SIZE - 1) / TileMap.TILE_SIZE;
+	}
+	
 	public static class LevelObject
 	{
 		
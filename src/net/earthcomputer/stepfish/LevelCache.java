@@ -0,0 +1,146 @@
+package net.earthcomputer.stepfish;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import net.earthcomputer.stepfish.Levels.LevelFormatException;
+
+/**
+ * Keeps the most recently used bundled levels parsed, so that going back to a
+ * level doesn't read it again, and can load levels in the background before
+ * they're needed. Levels are immutable once loaded, so a cached level can be
+ * loaded into the world any number of times.
+ *
+ * May be used from any thread. A level which is asked for while it's being
+ * loaded in the background is waited for rather than loaded twice.
+ */
+public class LevelCache {
+
+	private final int capacity;
+	/** Cached and loading levels by id, least recently used first. Synchronized on itself */
+	private final Map<Integer, Future<Level>> levels;
+	/** Loads prefetched levels, one at a time */
+	private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "Level prefetch");
+			// Don't keep the game running just to load a level which won't be played
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	/** Creates a cache which holds up to the given number of levels */
+	public LevelCache(int capacity) {
+		this.capacity = capacity;
+		this.levels = new LinkedHashMap<Integer, Future<Level>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 6004963829587812521L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Future<Level>> eldest) {
+				return size() > LevelCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the level with the given id, loading it on the calling thread if
+	 * it isn't cached or already loading
+	 */
+	public Level get(int id) throws LevelFormatException, IOException {
+		FutureTask<Level> task;
+		Future<Level> future;
+		synchronized (levels) {
+			future = levels.get(id);
+			if (future == null) {
+				task = createLoadTask(id);
+				future = task;
+				levels.put(id, task);
+			} else {
+				task = null;
+			}
+		}
+		if (task != null) {
+			task.run();
+		}
+		return getResult(id, future);
+	}
+
+	/**
+	 * Starts loading the level with the given id in the background, if it isn't
+	 * cached or loading already
+	 */
+	public void prefetch(int id) {
+		if (id < 0 || id >= Levels.getLevelCount())
+			return;
+		FutureTask<Level> task;
+		synchronized (levels) {
+			if (levels.containsKey(id))
+				return;
+			task = createLoadTask(id);
+			levels.put(id, task);
+		}
+		prefetchExecutor.execute(task);
+	}
+
+	/** Removes all the levels from the cache */
+	public void clear() {
+		synchronized (levels) {
+			levels.clear();
+		}
+	}
+
+	private static FutureTask<Level> createLoadTask(final int id) {
+		return new FutureTask<Level>(new Callable<Level>() {
+			@Override
+			public Level call() throws Exception {
+				return Levels.loadLevel(id);
+			}
+		});
+	}
+
+	private Level getResult(int id, Future<Level> future) throws LevelFormatException, IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					// Finish waiting, as the level is needed
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			// Don't cache the failure, so that the level is tried again next time
+			synchronized (levels) {
+				if (levels.get(id) == future) {
+					levels.remove(id);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof LevelFormatException)
+				throw (LevelFormatException) cause;
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
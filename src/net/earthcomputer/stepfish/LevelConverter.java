@@ -0,0 +1,77 @@
+package net.earthcomputer.stepfish;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import net.earthcomputer.stepfish.Levels.LevelFormatException;
+import net.earthcomputer.stepfish.object.ObjectTypes;
+
+/**
+ * Rewrites level files in the current version of the level format, in place.
+ * Takes the files to convert as arguments. Files which can't be read or
+ * written are reported and skipped, and the exit status is 1 if there were
+ * any.
+ */
+public class LevelConverter {
+
+	public static void main(String[] args) {
+		ObjectTypes.registerTypes();
+
+		boolean failed = false;
+		for (String fileName : args) {
+			try {
+				convert(fileName);
+			} catch (LevelFormatException e) {
+				System.err.println(fileName + ": not a valid level");
+				failed = true;
+			} catch (EOFException e) {
+				System.err.println(fileName + ": not a valid level, it ends too soon");
+				failed = true;
+			} catch (IOException e) {
+				System.err.println(fileName + ": " + e);
+				failed = true;
+			}
+		}
+		if (failed)
+			System.exit(1);
+	}
+
+	private static void convert(String fileName) throws LevelFormatException, IOException {
+		File file = new File(fileName);
+		Level level;
+		InputStream input = new BufferedInputStream(new FileInputStream(file));
+		try {
+			level = Levels.loadLevel(input);
+		} finally {
+			input.close();
+		}
+
+		// Written next to the file and moved over it, so that a failed write
+		// doesn't leave the level half converted
+		long oldSize = file.length();
+		File tempFile = new File(fileName + ".tmp");
+		try {
+			OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile));
+			try {
+				Levels.saveLevel(level, output);
+			} finally {
+				output.close();
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+		System.out.println(fileName + ": " + oldSize + " -> " + file.length() + " bytes");
+	}
+
+}
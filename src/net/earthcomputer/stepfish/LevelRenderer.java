@@ -0,0 +1,110 @@
+package net.earthcomputer.stepfish;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import net.earthcomputer.stepfish.object.GameObject;
+import net.earthcomputer.stepfish.util.DepthOrderedSet;
+import net.earthcomputer.stepfish.util.Images;
+
+/**
+ * Draws a world into a view of the size of the window's buffer. Keeps the
+ * pre-rendered static layer of the world's tile map between frames, so a
+ * renderer should only be used from one thread.
+ */
+public class LevelRenderer {
+
+	private static final BufferedImage BACKGROUND = Images.loadImage("gui/back_game");
+
+	/**
+	 * The level background and tiles, pre-rendered so they don't have to be
+	 * drawn every frame
+	 */
+	private StaticLayer staticLayer;
+
+	/**
+	 * Draws the world with the top-left of the view at the given position in
+	 * the level
+	 */
+	public void draw(Graphics g, World world, int cameraX, int cameraY, float partialTicks) {
+		TileMap tileMap = world.getTileMap();
+		if (tileMap == null) {
+			staticLayer = null;
+		} else if (staticLayer == null || staticLayer.tileMap != tileMap) {
+			staticLayer = new StaticLayer(tileMap);
+		}
+		if (staticLayer == null) {
+			g.drawImage(BACKGROUND, 0, 0, MainWindow.BUFFER_WIDTH, MainWindow.BUFFER_HEIGHT, null);
+		} else {
+			staticLayer.draw(g, cameraX, cameraY);
+		}
+
+		g.translate(-cameraX, -cameraY);
+		DepthOrderedSet<GameObject> objects = world.getObjects();
+		synchronized (objects) {
+			for (GameObject object : objects) {
+				if (object.isInView(cameraX, cameraY, MainWindow.BUFFER_WIDTH, MainWindow.BUFFER_HEIGHT)) {
+					object.draw(g, partialTicks);
+				}
+			}
+		}
+		g.translate(cameraX, cameraY);
+	}
+
+	/**
+	 * The level background and the tiles of a tile map around the camera,
+	 * rendered into an image which is only re-rendered when the tiles change or
+	 * the camera moves out of the rendered area
+	 */
+	private static class StaticLayer {
+
+		/** How far the rendered area extends past the edges of the view */
+		private static final int MARGIN = 128;
+		private static final int WIDTH = MainWindow.BUFFER_WIDTH + 2 * MARGIN;
+		private static final int HEIGHT = MainWindow.BUFFER_HEIGHT + 2 * MARGIN;
+
+		private final TileMap tileMap;
+		private final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		private int renderedVersion;
+		private int originX;
+		private int originY;
+
+		public StaticLayer(TileMap tileMap) {
+			this.tileMap = tileMap;
+			render(0, 0);
+		}
+
+		private void render(int originX, int originY) {
+			this.renderedVersion = tileMap.getVersion();
+			this.originX = originX;
+			this.originY = originY;
+
+			Graphics g = image.createGraphics();
+			g.translate(-originX, -originY);
+			// The background is repeated across levels which are bigger than
+			// the view
+			int firstBackgroundX = (originX / MainWindow.BUFFER_WIDTH) * MainWindow.BUFFER_WIDTH;
+			int firstBackgroundY = (originY / MainWindow.BUFFER_HEIGHT) * MainWindow.BUFFER_HEIGHT;
+			for (int y = firstBackgroundY; y < originY + HEIGHT; y += MainWindow.BUFFER_HEIGHT) {
+				for (int x = firstBackgroundX; x < originX + WIDTH; x += MainWindow.BUFFER_WIDTH) {
+					g.drawImage(BACKGROUND, x, y, MainWindow.BUFFER_WIDTH, MainWindow.BUFFER_HEIGHT, null);
+				}
+			}
+			tileMap.draw(g, originX, originY, WIDTH, HEIGHT);
+			g.dispose();
+		}
+
+		public void draw(Graphics g, int cameraX, int cameraY) {
+			boolean inRenderedArea = cameraX >= originX && cameraY >= originY
+					&& cameraX + MainWindow.BUFFER_WIDTH <= originX + WIDTH && cameraY + MainWindow.BUFFER_HEIGHT <= originY + HEIGHT;
+			if (!inRenderedArea) {
+				render(Math.max(0, cameraX - MARGIN), Math.max(0, cameraY - MARGIN));
+			} else if (renderedVersion != tileMap.getVersion()) {
+				render(originX, originY);
+			}
+			g.drawImage(image, originX - cameraX, originY - cameraY, null);
+		}
+
+	}
+
+}
@@ -0,0 +1,305 @@
+package net.earthcomputer.stepfish;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.earthcomputer.stepfish.Level.LevelObject;
+import net.earthcomputer.stepfish.object.GameObject;
+import net.earthcomputer.stepfish.object.ObjectTypes;
+import net.earthcomputer.stepfish.object.PlayerObject;
+import net.earthcomputer.stepfish.util.StateBuffer;
+
+/**
+ * Keeps only the objects near the players of a large level in the world. The
+ * level is split into square chunks, and only the chunks around the players
+ * are loaded. The objects in the other chunks are stored as the position they
+ * were created at and their type id, and are created when a player comes
+ * near. When a player moves away, the objects in the chunks left behind are
+ * removed from the world and stored in the chunk they had moved to, along
+ * with the state they wrote with {@link GameObject#writeState(StateBuffer)}.
+ * When the chunk is loaded again, the object is created where it was first
+ * created and the state is read back into it, as when a level is restarted,
+ * so objects carry on where they left off. Objects which have been removed from the world by
+ * the game, such as collected stars, stay removed. Players
+ * and other types which are always loaded are never stored, and nor are
+ * objects which weren't created from a type id. Static objects are in the tile
+ * map, which is compact enough to keep whole.
+ *
+ * All methods must be called on the ticking thread.
+ */
+public class LevelStreamer {
+
+	/** Levels with at least this many objects are streamed */
+	public static final int MIN_STREAMED_OBJECTS = 4096;
+	/** The width and height of a chunk */
+	public static final int CHUNK_SIZE = 512;
+	/** Chunks within this many chunks of a player's chunk are loaded */
+	private static final int LOAD_RADIUS = 1;
+	/**
+	 * Chunks further than this from all players are unloaded. This is more
+	 * than the load radius, so that a player moving back and forth over the
+	 * edge of a chunk doesn't keep loading and unloading it
+	 */
+	private static final int UNLOAD_RADIUS = 2;
+	/** How many ticks there are between checks of which chunks should be loaded */
+	private static final int CHECK_INTERVAL = 10;
+
+	private final World world;
+	private final int chunkColumns;
+	private final int chunkRows;
+	/**
+	 * The stored objects in each chunk, as the x and y they were created at and
+	 * their type id, or null if there are none
+	 */
+	private final int[][] storedObjects;
+	/**
+	 * The state of each stored object in each chunk, in the same order as
+	 * {@link #storedObjects}, or null for objects which have never been loaded
+	 */
+	private final StateBuffer[][] storedStates;
+	/** The number of ints used in each chunk's stored objects */
+	private final int[] storedLengths;
+	private final boolean[] loaded;
+	/**
+	 * The objects the streamer has put in the world, mapped to the x and y they
+	 * were created at and their type id.
+	 * Kept in the order they were loaded, rather than by identity hash code,
+	 * so that objects are unloaded, stored and loaded again in the same order
+	 * on every run. Game objects are only equal to themselves
+	 */
+	private final Map<GameObject, int[]> loadedObjects = new LinkedHashMap<GameObject, int[]>();
+	/**
+	 * The objects unloaded at the last check, mapped to the chunk they were
+	 * stored in and the state stored with them, in case the game removed them
+	 * in the same tick
+	 */
+	private final Map<GameObject, UnloadedObject> unloadedObjects = new LinkedHashMap<GameObject, UnloadedObject>();
+	private int ticksUntilCheck;
+
+	/**
+	 * Stores all the objects of the level which may be unloaded. The caller is
+	 * responsible for creating the rest
+	 */
+	public LevelStreamer(World world, Level level) {
+		this.world = world;
+		this.chunkColumns = Math.max(1, (level.width + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		this.chunkRows = Math.max(1, (level.height + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		this.storedObjects = new int[chunkColumns * chunkRows][];
+		this.storedStates = new StateBuffer[chunkColumns * chunkRows][];
+		this.storedLengths = new int[chunkColumns * chunkRows];
+		this.loaded = new boolean[chunkColumns * chunkRows];
+
+		for (LevelObject object : level.objects) {
+			if (isStreamedType(object.id)) {
+				store(getChunk(object.x, object.y), object.x, object.y, object.id, null);
+			}
+		}
+	}
+
+	/** Returns whether the given level is big enough to be worth streaming */
+	public static boolean shouldStream(Level level) {
+		return level.objects.length >= MIN_STREAMED_OBJECTS;
+	}
+
+	/** Returns whether objects of the given type are stored while they're far from the players */
+	public static boolean isStreamedType(int id) {
+		return !ObjectTypes.isAlwaysLoadedType(id) && !ObjectTypes.isStaticType(id);
+	}
+
+	/**
+	 * Called at the end of every update, to load and unload chunks every so
+	 * often
+	 */
+	public void tick() {
+		if (--ticksUntilCheck <= 0) {
+			checkChunks();
+		}
+	}
+
+	/**
+	 * Loads the chunks near the players and unloads the chunks which are far
+	 * from all of them. The objects are added and removed at the end of the
+	 * tick
+	 */
+	public void checkChunks() {
+		ticksUntilCheck = CHECK_INTERVAL;
+		unloadedObjects.clear();
+
+		List<PlayerObject> players = world.listObjects(PlayerObject.class);
+		int[] playerChunkXs = new int[players.size()];
+		int[] playerChunkYs = new int[players.size()];
+		for (int i = 0; i < playerChunkXs.length; i++) {
+			PlayerObject player = players.get(i);
+			playerChunkXs[i] = toChunkX(player.getX());
+			playerChunkYs[i] = toChunkY(player.getY());
+		}
+
+		for (int chunk = 0; chunk < loaded.length; chunk++) {
+			if (loaded[chunk] && getDistanceToPlayers(chunk, playerChunkXs, playerChunkYs) > UNLOAD_RADIUS) {
+				loaded[chunk] = false;
+			}
+		}
+
+		for (int i = 0; i < playerChunkXs.length; i++) {
+			int minX = Math.max(0, playerChunkXs[i] - LOAD_RADIUS);
+			int maxX = Math.min(chunkColumns - 1, playerChunkXs[i] + LOAD_RADIUS);
+			int minY = Math.max(0, playerChunkYs[i] - LOAD_RADIUS);
+			int maxY = Math.min(chunkRows - 1, playerChunkYs[i] + LOAD_RADIUS);
+			for (int chunkY = minY; chunkY <= maxY; chunkY++) {
+				for (int chunkX = minX; chunkX <= maxX; chunkX++) {
+					int chunk = chunkY * chunkColumns + chunkX;
+					if (!loaded[chunk]) {
+						loadChunk(chunk);
+					}
+				}
+			}
+		}
+
+		// Objects may have moved into unloaded chunks, so go by where they are
+		// rather than which chunk they were loaded in
+		for (Map.Entry<GameObject, int[]> entry : loadedObjects.entrySet()) {
+			GameObject object = entry.getKey();
+			int chunk = getChunk(object.getX(), object.getY());
+			if (!loaded[chunk]) {
+				StateBuffer state = new StateBuffer();
+				object.writeState(state);
+				state.trim();
+				int[] created = entry.getValue();
+				store(chunk, created[0], created[1], created[2], state);
+				unloadedObjects.put(object, new UnloadedObject(chunk, state));
+				world.unloadObject(object);
+			}
+		}
+		for (GameObject object : unloadedObjects.keySet()) {
+			loadedObjects.remove(object);
+		}
+
+	}
+
+	private void loadChunk(int chunk) {
+		loaded[chunk] = true;
+		int[] stored = storedObjects[chunk];
+		StateBuffer[] states = storedStates[chunk];
+		int length = storedLengths[chunk];
+		storedObjects[chunk] = null;
+		storedStates[chunk] = null;
+		storedLengths[chunk] = 0;
+		for (int i = 0; i < length; i += 3) {
+			GameObject object = world.addObject(stored[i], stored[i + 1], stored[i + 2]);
+			if (object != null) {
+				StateBuffer state = states[i / 3];
+				if (state != null) {
+					object.readState(state);
+				}
+				loadedObjects.put(object, new int[] { stored[i], stored[i + 1], stored[i + 2] });
+			}
+		}
+	}
+
+	/**
+	 * Called when the game removes an object from the world, so that it
+	 * doesn't come back when its chunk is loaded again
+	 */
+	public void onObjectRemoved(GameObject object) {
+		if (loadedObjects.remove(object) != null)
+			return;
+
+		UnloadedObject unloaded = unloadedObjects.remove(object);
+		if (unloaded != null) {
+			// Removed in the same tick it was unloaded, so take it back out of
+			// storage. Its state was stored with it, so identifies it
+			int chunk = unloaded.chunk;
+			int[] stored = storedObjects[chunk];
+			StateBuffer[] states = storedStates[chunk];
+			int length = storedLengths[chunk];
+			int count = length / 3;
+			for (int i = 0; i < count; i++) {
+				if (states[i] == unloaded.state) {
+					System.arraycopy(stored, i * 3 + 3, stored, i * 3, length - i * 3 - 3);
+					System.arraycopy(states, i + 1, states, i, count - i - 1);
+					states[count - 1] = null;
+					storedLengths[chunk] = length - 3;
+					return;
+				}
+			}
+		}
+	}
+
+	/** Returns the number of objects the streamer currently has in the world */
+	public int getLoadedObjectCount() {
+		return loadedObjects.size();
+	}
+
+	/** Returns the number of objects stored in unloaded chunks */
+	public int getStoredObjectCount() {
+		int count = 0;
+		for (int length : storedLengths) {
+			count += length / 3;
+		}
+		return count;
+	}
+
+	/**
+	 * Stores an object in the given chunk, with the position it was created at.
+	 * The state is null if the object has never been loaded
+	 */
+	private void store(int chunk, int x, int y, int id, StateBuffer state) {
+		int[] stored = storedObjects[chunk];
+		StateBuffer[] states = storedStates[chunk];
+		int length = storedLengths[chunk];
+		if (stored == null) {
+			stored = new int[24];
+			states = new StateBuffer[8];
+		} else if (length + 3 > stored.length) {
+			stored = Arrays.copyOf(stored, stored.length * 2);
+			states = Arrays.copyOf(states, states.length * 2);
+		}
+		stored[length] = x;
+		stored[length + 1] = y;
+		stored[length + 2] = id;
+		states[length / 3] = state;
+		storedObjects[chunk] = stored;
+		storedStates[chunk] = states;
+		storedLengths[chunk] = length + 3;
+	}
+
+	/**
+	 * Returns how many chunks away the given chunk is from the nearest player,
+	 * counting diagonal steps as one
+	 */
+	private int getDistanceToPlayers(int chunk, int[] playerChunkXs, int[] playerChunkYs) {
+		int chunkX = chunk % chunkColumns, chunkY = chunk / chunkColumns;
+		int distance = Integer.MAX_VALUE;
+		for (int i = 0; i < playerChunkXs.length; i++) {
+			distance = Math.min(distance,
+					Math.max(Math.abs(chunkX - playerChunkXs[i]), Math.abs(chunkY - playerChunkYs[i])));
+		}
+		return distance;
+	}
+
+	private int getChunk(double x, double y) {
+		return toChunkY(y) * chunkColumns + toChunkX(x);
+	}
+
+	/** Objects outside the level are kept in the nearest chunk */
+	private int toChunkX(double x) {
+		return Math.max(0, Math.min(chunkColumns - 1, (int) Math.floor(x / CHUNK_SIZE)));
+	}
+
+	private int toChunkY(double y) {
+		return Math.max(0, Math.min(chunkRows - 1, (int) Math.floor(y / CHUNK_SIZE)));
+	}
+
+	private static class UnloadedObject {
+		private final int chunk;
+		private final StateBuffer state;
+
+		public UnloadedObject(int chunk, StateBuffer state) {
+			this.chunk = chunk;
+			this.state = state;
+		}
+	}
+
+}
@@ -2,17 +2,29 @@ package net.earthcomputer.stepfish;
 
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 
 import net.earthcomputer.stepfish.Level.LevelObject;
+import net.earthcomputer.stepfish.object.ObjectTypes;
+import net.earthcomputer.stepfish.util.ByteBufferInputStream;
 
 public class Levels {
-	private static final int CURRENT_LEVEL_VERSION = 0;
+	/** "GHGM" in ASCII */
+	static final int MAGIC = 0x4748474D;
+	private static final int CURRENT_LEVEL_VERSION = ChunkedLevelFormat.VERSION;
 
 	private static final Map<Integer, String> levelNamesById = new HashMap<Integer, String>();
 	private static final Map<String, Integer> levelIdsByName = new HashMap<String, Integer>();
@@ -51,16 +63,63 @@ public class Levels {
 				new BufferedInputStream(Levels.class.getResourceAsStream(String.format("/levels/%s.gglevel", name))));
 	}
 
-	private static Level loadLevel(InputStream input) throws LevelFormatException, IOException {
+	/** Reads a level of any version of the format */
+	public static Level loadLevel(InputStream input) throws LevelFormatException, IOException {
 		DataInputStream dataInput = new DataInputStream(input);
 
-		if (dataInput.readInt() != 0x4748474D)
+		if (dataInput.readInt() != MAGIC)
 			throw new LevelFormatException();
 
 		int version = dataInput.readUnsignedByte();
 		if (version > CURRENT_LEVEL_VERSION)
 			throw new LevelFormatException();
+		if (version == ChunkedLevelFormat.VERSION)
+			return ChunkedLevelFormat.read(dataInput);
+		return readVersion0(dataInput);
+	}
+
+	/**
+	 * Reads a level from a file by memory-mapping it, so that the file isn't
+	 * copied through a stream's buffers
+	 */
+	public static Level loadLevel(File file) throws LevelFormatException, IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			// The mapping stays valid after the channel is closed
+			return loadLevel(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Reads a level of any version of the format from a buffer, starting at
+	 * its position. The chunks of a version 1 level which aren't deflated are
+	 * parsed in place
+	 */
+	public static Level loadLevel(ByteBuffer buffer) throws LevelFormatException {
+		buffer = buffer.duplicate();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		DataInputStream dataInput = new DataInputStream(new ByteBufferInputStream(buffer));
+		try {
+			if (dataInput.readInt() != MAGIC)
+				throw new LevelFormatException();
+
+			int version = dataInput.readUnsignedByte();
+			if (version > CURRENT_LEVEL_VERSION)
+				throw new LevelFormatException();
+			if (version == ChunkedLevelFormat.VERSION)
+				return ChunkedLevelFormat.read(dataInput, buffer);
+			return readVersion0(dataInput);
+		} catch (IOException e) {
+			// Only thrown if the buffer ends early
+			throw new LevelFormatException();
+		}
+	}
 
+	/** Reads the rest of a version 0 level, a flat list of objects */
+	private static Level readVersion0(DataInputStream dataInput) throws IOException {
 		String levelName = dataInput.readUTF();
 		int levelWidth = dataInput.readUnsignedShort();
 		int levelHeight = dataInput.readUnsignedShort();
@@ -74,7 +133,39 @@ public class Levels {
 			objects[i] = new LevelObject(x, y, id);
 		}
 
-		return new Level(levelName, levelWidth, levelHeight, objects);
+		return createLevel(levelName, levelWidth, levelHeight, objects);
+	}
+
+	/** Writes a level in the current version of the format, deflating its chunks */
+	public static void saveLevel(Level level, OutputStream output) throws IOException {
+		ChunkedLevelFormat.write(level, output, true);
+	}
+
+	/**
+	 * Creates a level from a list of objects, baking the static objects which
+	 * are aligned to the tile grid into the level's tiles
+	 */
+	public static Level createLevel(String name, int width, int height, LevelObject[] objects) {
+		int tileColumns = Level.getTileColumns(width);
+		int tileRows = Level.getTileRows(height);
+		short[] tiles = new short[tileColumns * tileRows];
+		List<LevelObject> dynamicObjects = new ArrayList<LevelObject>();
+
+		for (LevelObject object : objects) {
+			if (ObjectTypes.isStaticType(object.id) && object.x % TileMap.TILE_SIZE == 0
+					&& object.y % TileMap.TILE_SIZE == 0) {
+				int column = object.x / TileMap.TILE_SIZE;
+				int row = object.y / TileMap.TILE_SIZE;
+				if (column >= 0 && row >= 0 && column < tileColumns && row < tileRows
+						&& tiles[row * tileColumns + column] == 0) {
+					tiles[row * tileColumns + column] = (short) (object.id + 1);
+					continue;
+				}
+			}
+			dynamicObjects.add(object);
+		}
+
+		return new Level(name, width, height, tiles, dynamicObjects.toArray(new LevelObject[dynamicObjects.size()]));
 	}
 
 	public static int getLevelCount() {
@@ -5,7 +5,6 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.MouseInfo;
 import java.awt.Point;
-import java.awt.Shape;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.MouseAdapter;
@@ -15,56 +14,70 @@ import java.awt.event.MouseWheelListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
-import net.earthcomputer.stepfish.Level.LevelObject;
 import net.earthcomputer.stepfish.gui.Gui;
 import net.earthcomputer.stepfish.gui.GuiCompleteGame;
 import net.earthcomputer.stepfish.gui.GuiFail;
 import net.earthcomputer.stepfish.gui.GuiMainMenu;
 import net.earthcomputer.stepfish.gui.GuiPauseMenu;
 import net.earthcomputer.stepfish.object.GameObject;
-import net.earthcomputer.stepfish.object.ObjectTypes;
 import net.earthcomputer.stepfish.object.PlayerObject;
-import net.earthcomputer.stepfish.util.AlwaysTruePredicate;
-import net.earthcomputer.stepfish.util.GameObjectCreator;
+import net.earthcomputer.stepfish.profiler.TickProfiler;
 import net.earthcomputer.stepfish.util.Images;
-import net.earthcomputer.stepfish.util.InstanceOfPredicate;
+import net.earthcomputer.stepfish.util.InputLog;
 import net.earthcomputer.stepfish.util.Keyboard;
-import net.earthcomputer.stepfish.util.Predicate;
 import net.earthcomputer.stepfish.util.Profile;
 import net.earthcomputer.stepfish.util.Profiles;
 import net.earthcomputer.stepfish.util.SoundManager;
 
-public class MainWindow {
+public class MainWindow implements IWorldListener {
 
 	public static final int BUFFER_WIDTH = 640;
 	public static final int BUFFER_HEIGHT = 480;
 
 	private static final BufferedImage PAUSE_BUTTON = Images.loadImage("gui/pause");
-	private static final BufferedImage BACKGROUND = Images.loadImage("gui/back_game");
+	/** The number of parsed levels kept around */
+	private static final int LEVEL_CACHE_SIZE = 4;
 
 	private final JFrame theFrame;
 	private CustomContentPane contentPane;
 
-	private List<GameObject> objects = Collections.synchronizedList(new ArrayList<GameObject>());
-	private List<IUpdateListener> updateListeners = Collections.synchronizedList(new ArrayList<IUpdateListener>());
-	private Queue<Runnable> runLater = new ConcurrentLinkedQueue<Runnable>();
+	private final World world = new World(this, Keyboard.inputSource());
+	/** Null unless profiling is enabled with a system property */
+	private final TickProfiler profiler = TickProfiler.createIfEnabled();
+	/** Only accessed from the drawing thread */
+	private final LevelRenderer levelRenderer = new LevelRenderer();
+	/** The position of the top-left of the view in the level */
+	private volatile int cameraX;
+	private volatile int cameraY;
+	private volatile int prevCameraX;
+	private volatile int prevCameraY;
+	/** How far through the current tick the next frame is drawn */
+	private volatile float partialTicks;
 
 	private boolean paused = false;
 
+	/**
+	 * Where runs of levels are recorded to, null unless recording is enabled
+	 * with a system property
+	 */
+	private final File replayDirectory = Replay.getRecordDirectoryIfEnabled();
+	/** Records the input of the current run of the level, if recording is enabled */
+	private InputLog.Recorder inputRecorder;
+	/** The stars the profile had obtained when the current recording started */
+	private boolean[] recordingStarsObtained;
+
+	/** Holds the levels played recently, and the next level before it's reached */
+	private final LevelCache levelCache = new LevelCache(LEVEL_CACHE_SIZE);
 	private Level currentLevel;
 	private int currentLevelIndex;
 	private Profile currentProfile;
@@ -75,6 +88,9 @@ public class MainWindow {
 	private int musicCooldown = rand.nextInt(350) + 450;
 
 	public MainWindow() {
+		world.setProfiler(profiler);
+		world.setUpdatePool(World.createUpdatePoolIfEnabled());
+
 		theFrame = new JFrame(Stepfish
 				.randomGenTitle(Stepfish.GAME_VERSION.hashCode() + 31 * Stepfish.GAME_NAME.hashCode()) + " ("
 				+ Stepfish.GAME_NAME + " " + Stepfish.GAME_VERSION + ")");
@@ -144,104 +160,80 @@ public class MainWindow {
 		theFrame.dispose();
 	}
 
-	public GameObject addObject(double x, double y, int id) {
-		return addObject(x, y, ObjectTypes.getCreatorById(id));
-	}
-
-	public <T extends GameObject> T addObject(double x, double y, GameObjectCreator<T> creator) {
-		final T instance = creator.create(x, y);
-		if (instance != null) {
-			runLater(new Runnable() {
-				@Override
-				public void run() {
-					objects.add(instance);
-					instance.onAdded();
-				}
-			});
-			if (instance instanceof IUpdateListener)
-				addUpdateListener((IUpdateListener) instance);
-		}
-		return instance;
-	}
-
-	public void removeObject(final GameObject object) {
-		runLater(new Runnable() {
-			@Override
-			public void run() {
-				objects.remove(object);
-				object.onRemoved();
-			}
-		});
-		if (object instanceof IUpdateListener)
-			removeUpdateListener((IUpdateListener) object);
-	}
-
-	public void addUpdateListener(final IUpdateListener updateListener) {
-		runLater(new Runnable() {
-			@Override
-			public void run() {
-				updateListeners.add(updateListener);
-			}
-		});
-	}
-
-	public void removeUpdateListener(final IUpdateListener updateListener) {
-		runLater(new Runnable() {
-			@Override
-			public void run() {
-				updateListeners.remove(updateListener);
-			}
-		});
-	}
-
 	public boolean loadLevel(int id) {
 		Level level;
 		try {
-			level = Levels.loadLevel(id);
+			level = levelCache.get(id);
 		} catch (Exception e) {
 			return false;
 		}
 
 		currentLevelIndex = id;
 		loadLevel(level);
+		// Have the next level ready by the time this one is completed
+		levelCache.prefetch(id + 1);
 		return true;
 	}
 
 	private void loadLevel(Level level) {
 		Arrays.fill(starsObtained, false);
-		runLater(new Runnable() {
-			@Override
-			public void run() {
-				synchronized (objects) {
-					objects.clear();
-				}
-				synchronized (updateListeners) {
-					updateListeners.clear();
-				}
-			}
-		});
-
-		for (LevelObject object : level.objects) {
-			addObject(object.x, object.y, object.id);
-		}
-
+		finishRecording();
+		world.loadLevel(level);
 		this.currentLevel = level;
+		startRecording();
 	}
 
-	public void failLevel(PlayerObject player) {
-		failLevel(player, null);
-	}
-
-	public void failLevel(PlayerObject player, GameObject cause) {
-		player.setSpeed(0);
+	@Override
+	public void onLevelFailed(PlayerObject player, GameObject cause) {
 		openGui(new GuiFail(player, cause));
 	}
 
 	public void restartLevel() {
-		loadLevel(currentLevel);
+		Arrays.fill(starsObtained, false);
+		finishRecording();
+		world.restartLevel();
+		startRecording();
+	}
+
+	private void startRecording() {
+		if (replayDirectory != null && currentLevel != null) {
+			inputRecorder = InputLog.record(Replay.WORLD_BINDINGS);
+			recordingStarsObtained = new boolean[starsObtained.length];
+			for (int i = 0; i < recordingStarsObtained.length; i++) {
+				recordingStarsObtained[i] = isStarObtained(i);
+			}
+		}
 	}
 
-	public void completeLevel() {
+	/** Saves the run being recorded, if there is one, at the end of the tick */
+	private void finishRecording() {
+		if (inputRecorder == null)
+			return;
+		final InputLog input = inputRecorder.toLog();
+		final String levelName = currentLevel.name;
+		final boolean[] levelStarsObtained = recordingStarsObtained;
+		inputRecorder = null;
+		recordingStarsObtained = null;
+		if (input.getTickCount() == 0)
+			return;
+		// Wait for the rest of the tick's changes, but not for the level to
+		// change, so that the checksum is of the same state a playback ends in
+		world.runAfterScheduledTasks(new Runnable() {
+			@Override
+			public void run() {
+				Replay replay = new Replay(levelName, levelStarsObtained, input, world.computeStateChecksum());
+				File file = Replay.createReplayFile(replayDirectory, levelName);
+				try {
+					replay.save(file);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onLevelCompleted() {
 		if (currentLevelIndex == currentProfile.getCurrentLevel()) {
 			currentProfile.completeLevel();
 		}
@@ -271,10 +263,26 @@ public class MainWindow {
 		openGui(new GuiCompleteGame());
 	}
 
-	public void completeStar(int index) {
+	@Override
+	public void onStarCollected(int index) {
 		starsObtained[index] = true;
 	}
 
+	@Override
+	public boolean isStarObtained(int index) {
+		return currentProfile.isStarObtained(currentLevelIndex, index);
+	}
+
+	@Override
+	public void onPauseRequested() {
+		openGui(new GuiPauseMenu());
+	}
+
+	@Override
+	public void playSound(String name) {
+		SoundManager.playSound(name);
+	}
+
 	public Profile getProfile() {
 		return currentProfile;
 	}
@@ -288,22 +296,29 @@ public class MainWindow {
 	}
 
 	public void setNoLevel() {
+		finishRecording();
 		this.currentLevel = null;
 	}
 
+	/**
+	 * Sets how far through the current tick the next frame is, between 0 and 1
+	 */
+	public void setPartialTicks(float partialTicks) {
+		this.partialTicks = partialTicks;
+	}
+
 	public void redraw() {
 		theFrame.repaint();
 	}
 
 	private void draw(Graphics g) {
 		if (openGui == null || openGui.shouldDrawLevelBackground()) {
-			g.drawImage(BACKGROUND, 0, 0, BUFFER_WIDTH, BUFFER_HEIGHT, null);
+			// Don't interpolate while nothing is moving
+			float partialTicks = paused ? 1 : this.partialTicks;
+			int cameraX = prevCameraX + Math.round((this.cameraX - prevCameraX) * partialTicks);
+			int cameraY = prevCameraY + Math.round((this.cameraY - prevCameraY) * partialTicks);
 
-			synchronized (objects) {
-				for (GameObject object : objects) {
-					object.draw(g);
-				}
-			}
+			levelRenderer.draw(g, world, cameraX, cameraY, partialTicks);
 		}
 
 		if (openGui == null) {
@@ -319,147 +334,115 @@ public class MainWindow {
 	}
 
 	public void updateTick() {
-		musicCooldown--;
-		if (musicCooldown == 0) {
-			SoundManager.playSound("music", new Runnable() {
-				@Override
-				public void run() {
-					musicCooldown = rand.nextInt(350) + 450;
-				}
-			});
-		}
+		if (profiler != null)
+			profiler.startTick();
+
+		updateMusic();
 
+		TickProfiler.Section section = startSection("keyboard");
 		Keyboard.updateTick();
+		endSection(section);
 
 		if (!paused) {
-			synchronized (updateListeners) {
-				for (IUpdateListener updateListener : updateListeners) {
-					updateListener.update();
-				}
-			}
+			if (inputRecorder != null)
+				inputRecorder.recordTick(Keyboard.inputSource());
+			section = startSection("update");
+			world.updateObjects();
+			endSection(section);
 		}
 
-		if (openGui != null)
+		if (openGui != null) {
+			section = startSection("gui");
 			openGui.updateTick();
-
-		redraw();
-
-		synchronized (objects) {
-			Collections.sort(objects, new Comparator<GameObject>() {
-				@Override
-				public int compare(GameObject first, GameObject second) {
-					return Integer.compare(second.getDepth(), first.getDepth());
-				}
-			});
+			endSection(section);
 		}
 
-		synchronized (updateListeners) {
-			Collections.sort(updateListeners, new Comparator<IUpdateListener>() {
-				@Override
-				public int compare(IUpdateListener first, IUpdateListener second) {
-					if (first instanceof GameObject) {
-						if (second instanceof GameObject) {
-							return Integer.compare(((GameObject) second).getDepth(), ((GameObject) first).getDepth());
-						} else {
-							return -1;
-						}
-					} else if (second instanceof GameObject) {
-						return 1;
-					} else {
-						return 0;
-					}
-				}
-			});
-		}
+		section = startSection("camera");
+		updateCamera();
+		endSection(section);
 
-		synchronized (runLater) {
-			while (!runLater.isEmpty()) {
-				runLater.poll().run();
-			}
-		}
+		section = startSection("runLater");
+		world.runScheduledTasks();
+		endSection(section);
+
+		if (profiler != null)
+			profiler.endTick();
 	}
 
-	public void runLater(Runnable task) {
-		synchronized (runLater) {
-			runLater.offer(task);
-		}
+	/** Starts timing a section of the tick, or returns null if not profiling */
+	private TickProfiler.Section startSection(String name) {
+		if (profiler == null)
+			return null;
+		TickProfiler.Section section = profiler.getSection(name);
+		profiler.start(section);
+		return section;
 	}
 
-	@SuppressWarnings("unchecked")
-	public <T extends GameObject> List<T> listObjects(Class<T> clazz) {
-		return (List<T>) listObjects(new InstanceOfPredicate<GameObject>(clazz));
+	/** Ends a section started with {@link #startSection(String)} */
+	private void endSection(TickProfiler.Section section) {
+		if (section != null)
+			profiler.end(section);
 	}
 
-	public List<GameObject> listObjects(Predicate<GameObject> predicate) {
-		List<GameObject> objectsFound = new ArrayList<GameObject>();
-		synchronized (objects) {
-			for (GameObject object : objects) {
-				if (predicate.apply(object)) {
-					objectsFound.add(object);
+	private void updateMusic() {
+		musicCooldown--;
+		if (musicCooldown == 0) {
+			SoundManager.playSound("music", new Runnable() {
+				@Override
+				public void run() {
+					musicCooldown = rand.nextInt(350) + 450;
 				}
-			}
+			});
 		}
-		return objectsFound;
-	}
-
-	public List<GameObject> getObjectsThatCollideWith(GameObject object) {
-		return getObjectsThatCollideWith(object, new AlwaysTruePredicate<GameObject>());
-	}
-
-	@SuppressWarnings("unchecked")
-	public <T extends GameObject> List<T> getObjectsThatCollideWith(GameObject object, Class<T> type) {
-		return (List<T>) getObjectsThatCollideWith(object, new InstanceOfPredicate<GameObject>(type));
 	}
 
-	public List<GameObject> getObjectsThatCollideWith(final GameObject object, final Predicate<GameObject> filter) {
-		return listObjects(new Predicate<GameObject>() {
-			@Override
-			public boolean apply(GameObject input) {
-				return filter.apply(input) && object.isCollidedWith(input);
-			}
-		});
-	}
-
-	public List<GameObject> getObjectsThatCollideWith(Shape shape) {
-		return getObjectsThatCollideWith(shape, new AlwaysTruePredicate<GameObject>());
-	}
-
-	@SuppressWarnings("unchecked")
-	public <T extends GameObject> List<T> getObjectsThatCollideWith(Shape shape, Class<T> type) {
-		return (List<T>) getObjectsThatCollideWith(shape, new InstanceOfPredicate<GameObject>(type));
-	}
-
-	public List<GameObject> getObjectsThatCollideWith(final Shape shape, final Predicate<GameObject> filter) {
-		return listObjects(new Predicate<GameObject>() {
-			@Override
-			public boolean apply(GameObject input) {
-				return filter.apply(input) && input.isCollidedWith(shape);
-			}
-		});
-	}
+	/**
+	 * Moves the camera to be centered on the players, without going outside the
+	 * level
+	 */
+	private void updateCamera() {
+		prevCameraX = cameraX;
+		prevCameraY = cameraY;
+		if (currentLevel == null || paused)
+			return;
+
+		List<PlayerObject> players = world.listObjects(PlayerObject.class);
+		if (players.isEmpty())
+			return;
+		double centerX = 0, centerY = 0;
+		for (PlayerObject player : players) {
+			centerX += player.getX() + 8;
+			centerY += player.getY() + 8;
+		}
+		centerX /= players.size();
+		centerY /= players.size();
 
-	public boolean isObjectCollidedWith(GameObject object, Class<? extends GameObject> type) {
-		return !getObjectsThatCollideWith(object, type).isEmpty();
+		int maxCameraX = Math.max(0, currentLevel.width - BUFFER_WIDTH);
+		int maxCameraY = Math.max(0, currentLevel.height - BUFFER_HEIGHT);
+		cameraX = Math.max(0, Math.min(maxCameraX, (int) centerX - BUFFER_WIDTH / 2));
+		cameraY = Math.max(0, Math.min(maxCameraY, (int) centerY - BUFFER_HEIGHT / 2));
 	}
 
-	public boolean isObjectCollidedWith(GameObject object, Predicate<GameObject> filter) {
-		return !getObjectsThatCollideWith(object, filter).isEmpty();
+	public int getCameraX() {
+		return cameraX;
 	}
 
-	public boolean isShapeCollidedWith(Shape shape, Class<? extends GameObject> type) {
-		return !getObjectsThatCollideWith(shape, type).isEmpty();
+	public int getCameraY() {
+		return cameraY;
 	}
 
-	public boolean isShapeCollidedWith(Shape shape, Predicate<GameObject> filter) {
-		return !getObjectsThatCollideWith(shape, filter).isEmpty();
+	public void runLater(Runnable task) {
+		world.runLater(task);
 	}
 
-	public int getWidth() {
-		return currentLevel.width;
+	/** Returns the tick profiler, or null if profiling isn't enabled */
+	public TickProfiler getProfiler() {
+		return profiler;
 	}
 
-	public int getHeight() {
-		return currentLevel.height;
+	/** Returns the world of the level being played */
+	public World getWorld() {
+		return world;
 	}
 
 	public void openGui(final Gui gui) {
@@ -521,9 +504,13 @@ public class MainWindow {
 			g.setColor(Color.BLACK);
 			g.fillRect(0, 0, getWidth(), getHeight());
 
+			if (profiler != null)
+				profiler.startFrame();
 			Graphics bufferGraphics = buffer.createGraphics();
 			draw(bufferGraphics);
 			bufferGraphics.dispose();
+			if (profiler != null)
+				profiler.endFrame();
 
 			if (isWidthControlling()) {
 				int height = BUFFER_HEIGHT * getWidth() / BUFFER_WIDTH;
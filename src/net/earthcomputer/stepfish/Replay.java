@@ -0,0 +1,277 @@
+package net.earthcomputer.stepfish;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+
+import net.earthcomputer.stepfish.HeadlessSimulation.EnumOutcome;
+import net.earthcomputer.stepfish.object.ObjectTypes;
+import net.earthcomputer.stepfish.util.InputLog;
+
+/**
+ * A recorded run of a level: which level it was, which of its stars had
+ * already been obtained, the input on every tick, and a checksum of the world
+ * after the last tick. The simulation is
+ * deterministic, so playing the input back into the same level ends with the
+ * same checksum. If it doesn't, something in the simulation depends on more
+ * than the input, such as timing or the order of a hash set.
+ *
+ * The game records every run of a level into the directory given by the
+ * {@value #RECORD_PROPERTY} system property, if it's set. A run ends when the
+ * level is restarted, left, or completed.
+ *
+ * Running the main method plays back the given replay files without a window
+ * or sound, as fast as possible, and checks their checksums. The first
+ * argument is the number of times to play back each one, for benchmarking.
+ * With {@value #CHECK_MODES_OPTION} before it, each replay is also played
+ * once in each {@link EnumPlayMode}, which must all end with the same
+ * checksum.
+ */
+public class Replay {
+
+	/** Set to the directory to record runs of levels into */
+	public static final String RECORD_PROPERTY = "stepfish.recordInput";
+	/** The key bindings which affect the world, and so are recorded */
+	public static final String[] WORLD_BINDINGS = { "moveLeft", "moveRight", "jump", "closeGui" };
+
+	/** The option to the main method to play each replay in every mode */
+	public static final String CHECK_MODES_OPTION = "--check-modes";
+
+	/** The number of stars in a level */
+	private static final int STAR_COUNT = 3;
+
+	private static final int MAGIC = 0x53465250;
+	private static final int VERSION = 0;
+
+	private final String levelName;
+	private final boolean[] starsObtained;
+	private final InputLog input;
+	private final long endChecksum;
+
+	public Replay(String levelName, boolean[] starsObtained, InputLog input, long endChecksum) {
+		this.levelName = levelName;
+		this.starsObtained = starsObtained.clone();
+		this.input = input;
+		this.endChecksum = endChecksum;
+	}
+
+	/** Returns the directory to record runs into, or null if recording isn't enabled */
+	public static File getRecordDirectoryIfEnabled() {
+		String directory = System.getProperty(RECORD_PROPERTY);
+		if (directory == null)
+			return null;
+		File file = new File(directory);
+		file.mkdirs();
+		return file;
+	}
+
+	/** Returns a new file in the given directory to save a run of the given level to */
+	public static File createReplayFile(File directory, String levelName) {
+		String date = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+		return new File(directory, levelName.replaceAll("[^A-Za-z0-9]+", "_") + "-" + date + ".replay");
+	}
+
+	public String getLevelName() {
+		return levelName;
+	}
+
+	/**
+	 * Returns which of the level's stars had already been obtained when the
+	 * run started. The game leaves those out of the level
+	 */
+	public boolean[] getStarsObtained() {
+		return starsObtained.clone();
+	}
+
+	public InputLog getInput() {
+		return input;
+	}
+
+	/** Returns the checksum of the world after the last tick, as given by {@link World#computeStateChecksum()} */
+	public long getEndChecksum() {
+		return endChecksum;
+	}
+
+	/**
+	 * Plays back the whole run in a new simulation of the given level, which is
+	 * returned. Ticks carry on being played after the level is completed or
+	 * failed, as they were recorded
+	 */
+	public HeadlessSimulation play(Level level) {
+		return play(level, null);
+	}
+
+	/**
+	 * Plays back the whole run like {@link #play(Level)}, in the given mode, or
+	 * in the mode the system properties choose if it's null
+	 */
+	public HeadlessSimulation play(Level level, EnumPlayMode mode) {
+		HeadlessSimulation simulation = new HeadlessSimulation(level, input);
+		if (mode != null)
+			mode.configure(simulation.getWorld());
+		for (int i = 0; i < starsObtained.length; i++) {
+			simulation.setStarObtained(i, starsObtained[i]);
+		}
+		simulation.start();
+		while (simulation.getTicksRun() < input.getTickCount()) {
+			simulation.tick();
+		}
+		return simulation;
+	}
+
+	public static Replay load(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (input.readInt() != MAGIC)
+				throw new IOException("Not a replay file: " + file);
+			int version = input.readUnsignedByte();
+			if (version != VERSION)
+				throw new IOException("Unsupported replay version " + version);
+			String levelName = input.readUTF();
+			boolean[] starsObtained = new boolean[STAR_COUNT];
+			int starBits = input.readUnsignedByte();
+			for (int i = 0; i < STAR_COUNT; i++) {
+				starsObtained[i] = (starBits & (1 << i)) != 0;
+			}
+			long endChecksum = input.readLong();
+			return new Replay(levelName, starsObtained, InputLog.read(input), endChecksum);
+		} finally {
+			input.close();
+		}
+	}
+
+	public void save(File file) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeByte(VERSION);
+			output.writeUTF(levelName);
+			int starBits = 0;
+			for (int i = 0; i < starsObtained.length; i++) {
+				if (starsObtained[i])
+					starBits |= 1 << i;
+			}
+			output.writeByte(starBits);
+			output.writeLong(endChecksum);
+			input.write(output);
+		} finally {
+			output.close();
+		}
+	}
+
+	/** Finds the bundled level with the given name, or returns null if there isn't one */
+	private static Level findLevel(String name) throws Exception {
+		for (int id = 0; id < Levels.getLevelCount(); id++) {
+			Level level = Levels.loadLevel(id);
+			if (level.name.equals(name))
+				return level;
+		}
+		return null;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		ObjectTypes.registerTypes();
+
+		int firstArg = 0;
+		boolean checkModes = args.length != 0 && args[0].equals(CHECK_MODES_OPTION);
+		if (checkModes)
+			firstArg++;
+		if (args.length - firstArg < 2) {
+			System.err.println("Usage: Replay [" + CHECK_MODES_OPTION + "] <runs> <replay files...>");
+			System.exit(1);
+		}
+		int runs = Integer.parseInt(args[firstArg]);
+
+		long totalTicks = 0;
+		long startTime = System.nanoTime();
+		boolean desynced = false;
+		for (int i = firstArg + 1; i < args.length; i++) {
+			Replay replay = load(new File(args[i]));
+			Level level = findLevel(replay.levelName);
+			if (level == null) {
+				System.err.println(args[i] + ": no level called " + replay.levelName);
+				desynced = true;
+				continue;
+			}
+			HeadlessSimulation simulation = null;
+			for (int run = 0; run < runs; run++) {
+				simulation = replay.play(level);
+				totalTicks += simulation.getTicksRun();
+			}
+			long checksum = simulation.getWorld().computeStateChecksum();
+			EnumOutcome outcome = simulation.getOutcome();
+			boolean matches = checksum == replay.endChecksum;
+			desynced |= !matches;
+			System.out.println(args[i] + ": " + level.name + ", " + (outcome == null ? "unfinished" : outcome)
+					+ " after " + simulation.getTicksRun() + " ticks, " + (matches ? "checksum matches" : "DESYNC"));
+
+			if (checkModes) {
+				for (EnumPlayMode mode : EnumPlayMode.values()) {
+					simulation = replay.play(level, mode);
+					totalTicks += simulation.getTicksRun();
+					matches = simulation.getWorld().computeStateChecksum() == replay.endChecksum;
+					desynced |= !matches;
+					System.out.println("    " + mode + ": " + (matches ? "checksum matches" : "DESYNC"));
+				}
+			}
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.printf("Played %d ticks in %.2f seconds (%.0f ticks per second)%n", totalTicks, seconds,
+				totalTicks / seconds);
+		if (desynced)
+			System.exit(1);
+	}
+
+	/**
+	 * The ways a world can be set up to update. They are only meant to differ
+	 * in speed, so a replay must end the same in all of them
+	 */
+	public static enum EnumPlayMode {
+		/** Every update on the ticking thread, and each physics object moving itself in its own update */
+		SERIAL {
+			@Override
+			void configure(World world) {
+				world.setBatchPhysics(false);
+				world.setUpdatePool(null);
+			}
+		},
+		/** Physics objects moved together, see {@link World#setBatchPhysics(boolean)} */
+		BATCH_PHYSICS {
+			@Override
+			void configure(World world) {
+				world.setBatchPhysics(true);
+				world.setUpdatePool(null);
+			}
+		},
+		/**
+		 * Every batch of parallel update listeners updated on a pool, however
+		 * small, to check that the result doesn't depend on the threads
+		 */
+		PARALLEL {
+			private ForkJoinPool pool;
+
+			@Override
+			void configure(World world) {
+				if (pool == null) {
+					pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+				}
+				world.setBatchPhysics(false);
+				world.setUpdatePool(pool);
+				world.setMinParallelBatch(1);
+			}
+		};
+
+		/** Sets up a world, before its level is loaded, to update in this mode */
+		abstract void configure(World world);
+	}
+
+}
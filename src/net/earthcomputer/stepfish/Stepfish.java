@@ -18,8 +18,13 @@ public class Stepfish implements Thread.UncaughtExceptionHandler
 	public static final String GAME_NAME = "Stepfish";
 	public static final String GAME_VERSION = "1.1 Beta";
 	public static final int TICKRATE = 30;
-	private static final int MILLIS_PER_TICK = 1000 / TICKRATE;
-	public static final int FRAMERATE = TICKRATE;
+	private static final long NANOS_PER_TICK = 1000000000L / TICKRATE;
+	public static final int FRAMERATE = 60;
+	private static final long NANOS_PER_FRAME = 1000000000L / FRAMERATE;
+	/** The maximum number of ticks to run to catch up before drawing a frame */
+	private static final int MAX_TICKS_PER_FRAME = 5;
+	/** The minimum time between messages about skipped ticks, so that they don't flood the console under load */
+	private static final long NANOS_BETWEEN_SKIP_MESSAGES = 5000000000L;
 	
 	/** The singleton instance */
 	private static Stepfish INSTANCE;
@@ -81,29 +86,59 @@ public class Stepfish implements Thread.UncaughtExceptionHandler
 		
 		theWindow.openGui(new GuiMainMenu());
 		
+		// Fixed timestep: ticks are run at exactly TICKRATE on average, however
+		// long frames take, and frames are drawn in between ticks
+		long lastTime = System.nanoTime();
+		long unprocessedNanos = 0;
+		long lastSkipMessageTime = lastTime - NANOS_BETWEEN_SKIP_MESSAGES;
+		long unreportedSkippedTicks = 0;
 		while(runningLoop)
 		{
-			long startTick = System.currentTimeMillis(), timeToSleep;
+			long frameStart = System.nanoTime();
+			unprocessedNanos += frameStart - lastTime;
+			lastTime = frameStart;
 			
-			theWindow.updateTick();
+			int ticksThisFrame = 0;
+			while(unprocessedNanos >= NANOS_PER_TICK && ticksThisFrame < MAX_TICKS_PER_FRAME)
+			{
+				theWindow.updateTick();
+				unprocessedNanos -= NANOS_PER_TICK;
+				ticksThisFrame++;
+			}
+			if(unprocessedNanos >= NANOS_PER_TICK)
+			{
+				long skippedTicks = unprocessedNanos / NANOS_PER_TICK;
+				if(theWindow.getProfiler() != null)
+				{
+					theWindow.getProfiler().onTicksSkipped(skippedTicks);
+				}
+				unreportedSkippedTicks += skippedTicks;
+				unprocessedNanos %= NANOS_PER_TICK;
+			}
+			if(unreportedSkippedTicks != 0 && frameStart - lastSkipMessageTime >= NANOS_BETWEEN_SKIP_MESSAGES)
+			{
+				System.out.println("Can't keep up! Skipped " + unreportedSkippedTicks + " ticks");
+				unreportedSkippedTicks = 0;
+				lastSkipMessageTime = frameStart;
+			}
+			
+			theWindow.setPartialTicks((float) unprocessedNanos / NANOS_PER_TICK);
+			theWindow.redraw();
 			
-			timeToSleep = MILLIS_PER_TICK - (System.currentTimeMillis() - startTick);
-			if(timeToSleep > 0)
+			// Sleep until the next frame or tick is due, whichever is first
+			long nanosToSleep = Math.min(NANOS_PER_FRAME - (System.nanoTime() - frameStart),
+				NANOS_PER_TICK - unprocessedNanos);
+			if(nanosToSleep > 0)
 			{
 				try
 				{
-					Thread.sleep(timeToSleep);
+					Thread.sleep(nanosToSleep / 1000000, (int) (nanosToSleep % 1000000));
 				}
 				catch (InterruptedException e)
 				{
 					throw new RuntimeException("Ticking thread interrupted");
 				}
 			}
-			else
-			{
-				System.out.println(
-					"One tick took longer than expected: we're behind by " + (-timeToSleep) + " milliseconds!");
-			}
 		}
 	}
 	
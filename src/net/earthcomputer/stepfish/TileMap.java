@@ -0,0 +1,307 @@
+package net.earthcomputer.stepfish;
+
+import java.awt.Graphics;
+import java.awt.Shape;
+import java.util.Arrays;
+import java.util.List;
+
+import net.earthcomputer.stepfish.geom.collision.BoxList;
+import net.earthcomputer.stepfish.geom.collision.CollisionMask;
+import net.earthcomputer.stepfish.object.GameObject;
+import net.earthcomputer.stepfish.object.ObjectTypes;
+import net.earthcomputer.stepfish.util.Predicate;
+
+/**
+ * The static objects of a level, stored as a grid of object ids rather than as
+ * individual objects. All tiles have a collision mask which fills the whole
+ * tile.
+ *
+ * Each type of tile has a single prototype object which is not in the level,
+ * and is what collision filters are applied to. This means that filters on
+ * tiles must not depend on the position of the object. The prototypes always
+ * stay at (0, 0), and are drawn translated to each of their tiles.
+ *
+ * The tile array is copy-on-write: it is shared with the level it came from
+ * and with snapshots, and is only copied when a tile changes while it's shared.
+ */
+public class TileMap {
+
+	public static final int TILE_SIZE = 16;
+
+	private final int columns;
+	private final int rows;
+	/**
+	 * The tile ids, plus one. Replaced rather than changed while shared, so
+	 * readers on other threads should read it once into a local variable
+	 */
+	private short[] tiles;
+	/** Whether {@link #tiles} may be referenced from outside, so must be copied before it changes */
+	private boolean tilesShared;
+	/** The prototype object for each tile id, plus one */
+	private GameObject[] prototypes;
+	/** Incremented every time a tile changes, so that renderings of the tiles know when they're out of date */
+	private volatile int version;
+
+	public TileMap(Level level) {
+		this.columns = level.tileColumns;
+		this.rows = level.tileRows;
+		this.tiles = level.tiles;
+		this.tilesShared = true;
+
+		int maxTile = 0;
+		for (short tile : tiles) {
+			maxTile = Math.max(maxTile, tile & 0xffff);
+		}
+		prototypes = new GameObject[maxTile + 1];
+		for (short tile : tiles) {
+			int index = tile & 0xffff;
+			if (index != 0 && prototypes[index] == null) {
+				prototypes[index] = ObjectTypes.getCreatorById(index - 1).create(0, 0);
+			}
+		}
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the prototype object of the tile at the given column and row, or
+	 * null if there is no tile there
+	 */
+	public GameObject getTile(int column, int row) {
+		if (column < 0 || row < 0 || column >= columns || row >= rows)
+			return null;
+		return prototypes[tiles[row * columns + column] & 0xffff];
+	}
+
+	/**
+	 * Sets the tile at the given column and row to the object with the given
+	 * id, or removes the tile if the id is -1
+	 */
+	public void setTile(int column, int row, int id) {
+		if (column < 0 || row < 0 || column >= columns || row >= rows)
+			throw new IndexOutOfBoundsException("Tile (" + column + ", " + row + ") is outside the tile map");
+		int index = id + 1;
+		if (index >= prototypes.length) {
+			prototypes = Arrays.copyOf(prototypes, index + 1);
+		}
+		if (index != 0 && prototypes[index] == null) {
+			prototypes[index] = ObjectTypes.getCreatorById(id).create(0, 0);
+		}
+		short[] tiles = this.tiles;
+		if (tiles[row * columns + column] == (short) index)
+			return;
+		if (tilesShared) {
+			tiles = tiles.clone();
+			tilesShared = false;
+		}
+		tiles[row * columns + column] = (short) index;
+		this.tiles = tiles;
+		version++;
+	}
+
+	/**
+	 * Returns the tile ids, plus one, for {@link #setTiles(short[])}. The array
+	 * isn't copied, so must not be changed; the tile map copies it before its
+	 * own next change instead
+	 */
+	public short[] shareTiles() {
+		tilesShared = true;
+		return tiles;
+	}
+
+	/**
+	 * Sets all the tiles to an array returned by {@link #shareTiles()}, which is
+	 * shared rather than copied. The version only changes if a tile does
+	 */
+	public void setTiles(short[] tiles) {
+		if (tiles.length != this.tiles.length)
+			throw new IllegalArgumentException("Wrong number of tiles");
+		if (tiles != this.tiles && !Arrays.equals(tiles, this.tiles)) {
+			this.tiles = tiles;
+			tilesShared = true;
+			version++;
+		}
+	}
+
+	/**
+	 * Returns a hash of the tile ids, equal to {@link Arrays#hashCode(short[])}
+	 * of them, without copying them
+	 */
+	public int hashTiles() {
+		return Arrays.hashCode(tiles);
+	}
+
+	/** Returns a number which changes every time a tile changes */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Creates a new object, which is not added to the level, for the tile at the
+	 * given column and row
+	 */
+	public GameObject createTileObject(int column, int row) {
+		int index = tiles[row * columns + column] & 0xffff;
+		return ObjectTypes.getCreatorById(index - 1).create(column * TILE_SIZE, row * TILE_SIZE);
+	}
+
+	/**
+	 * Returns whether any tile matching the given filter collides with the given
+	 * object
+	 */
+	public boolean isObjectCollidedWith(GameObject object, Predicate<GameObject> filter) {
+		CollisionMask<?> mask = object.getCollisionMask();
+		return query(object, null, mask.getMinX(), mask.getMinY(), mask.getMaxX(), mask.getMaxY(), filter, null);
+	}
+
+	/**
+	 * Returns whether any tile matching the given filter collides with the given
+	 * shape, which has the given bounds
+	 */
+	public boolean isShapeCollidedWith(Shape shape, double minX, double minY, double maxX, double maxY,
+			Predicate<GameObject> filter) {
+		return query(null, shape, minX, minY, maxX, maxY, filter, null);
+	}
+
+	/**
+	 * Passes all the tiles matching the given filter which collide with the
+	 * given object to the visitor, until it returns false
+	 */
+	public void visitTilesThatCollideWith(GameObject object, Predicate<GameObject> filter, ITileVisitor visitor) {
+		CollisionMask<?> mask = object.getCollisionMask();
+		query(object, null, mask.getMinX(), mask.getMinY(), mask.getMaxX(), mask.getMaxY(), filter, visitor);
+	}
+
+	/**
+	 * Passes all the tiles matching the given filter which collide with the
+	 * given shape, which has the given bounds, to the visitor, until it returns
+	 * false
+	 */
+	public void visitTilesThatCollideWith(Shape shape, double minX, double minY, double maxX, double maxY,
+			Predicate<GameObject> filter, ITileVisitor visitor) {
+		query(null, shape, minX, minY, maxX, maxY, filter, visitor);
+	}
+
+	/**
+	 * Creates objects for all the tiles matching the given filter which collide
+	 * with the given object, and adds them to the result list. This creates an
+	 * object for each tile found, so
+	 * {@link #visitTilesThatCollideWith(GameObject, Predicate, ITileVisitor)}
+	 * should be used where the objects aren't needed
+	 */
+	public void getTilesThatCollideWith(GameObject object, Predicate<GameObject> filter, List<GameObject> result) {
+		CollisionMask<?> mask = object.getCollisionMask();
+		query(object, null, mask.getMinX(), mask.getMinY(), mask.getMaxX(), mask.getMaxY(), filter,
+				new TileObjectCollector(result));
+	}
+
+	/**
+	 * Creates objects for all the tiles matching the given filter which collide
+	 * with the given shape, which has the given bounds, and adds them to the
+	 * result list
+	 */
+	public void getTilesThatCollideWith(Shape shape, double minX, double minY, double maxX, double maxY,
+			Predicate<GameObject> filter, List<GameObject> result) {
+		query(null, shape, minX, minY, maxX, maxY, filter, new TileObjectCollector(result));
+	}
+
+	/**
+	 * Adds the bounds of all tiles matching the given filter which touch the
+	 * given area to the result list
+	 */
+	public void getBoundsInArea(double minX, double minY, double maxX, double maxY, Predicate<GameObject> filter,
+			BoxList result) {
+		int minColumn = Math.max(0, toTile(minX));
+		int minRow = Math.max(0, toTile(minY));
+		int maxColumn = Math.min(columns - 1, toTile(maxX));
+		int maxRow = Math.min(rows - 1, toTile(maxY));
+
+		short[] tiles = this.tiles;
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				GameObject prototype = prototypes[tiles[row * columns + column] & 0xffff];
+				if (prototype != null && filter.apply(prototype)) {
+					int x = column * TILE_SIZE, y = row * TILE_SIZE;
+					result.add(x, y, x + TILE_SIZE, y + TILE_SIZE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes the colliding tiles to the visitor, or stops at the first one if
+	 * there is no visitor. Returns whether it stopped early
+	 */
+	private boolean query(GameObject object, Shape shape, double minX, double minY, double maxX, double maxY,
+			Predicate<GameObject> filter, ITileVisitor visitor) {
+		int minColumn = Math.max(0, toTile(minX));
+		int minRow = Math.max(0, toTile(minY));
+		int maxColumn = Math.min(columns - 1, toTile(maxX));
+		int maxRow = Math.min(rows - 1, toTile(maxY));
+
+		short[] tiles = this.tiles;
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				GameObject prototype = prototypes[tiles[row * columns + column] & 0xffff];
+				if (prototype == null || !filter.apply(prototype))
+					continue;
+
+				int x = column * TILE_SIZE, y = row * TILE_SIZE;
+				boolean collided = object != null ? object.isCollidedWith(x, y, TILE_SIZE, TILE_SIZE)
+						: shape.intersects(x, y, TILE_SIZE, TILE_SIZE);
+				if (collided && (visitor == null || !visitor.visitTile(prototype, column, row)))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/** Draws all the tiles which overlap the given area */
+	public void draw(Graphics g, int x, int y, int width, int height) {
+		int minColumn = Math.max(0, toTile(x));
+		int minRow = Math.max(0, toTile(y));
+		int maxColumn = Math.min(columns - 1, toTile(x + width - 1));
+		int maxRow = Math.min(rows - 1, toTile(y + height - 1));
+		// This is called from the drawing thread, so moving the prototypes to
+		// each tile would race with collision checks on the ticking thread
+		short[] tiles = this.tiles;
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				GameObject prototype = prototypes[tiles[row * columns + column] & 0xffff];
+				if (prototype != null) {
+					int tileX = column * TILE_SIZE, tileY = row * TILE_SIZE;
+					g.translate(tileX, tileY);
+					prototype.draw(g, 1);
+					g.translate(-tileX, -tileY);
+				}
+			}
+		}
+	}
+
+	private static int toTile(double coord) {
+		return (int) Math.floor(coord / TILE_SIZE);
+	}
+
+	/** Creates an object for each tile visited, for the queries which return lists */
+	private class TileObjectCollector implements ITileVisitor {
+		private final List<GameObject> result;
+
+		public TileObjectCollector(List<GameObject> result) {
+			this.result = result;
+		}
+
+		@Override
+		public boolean visitTile(GameObject prototype, int column, int row) {
+			result.add(createTileObject(column, row));
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,1190 @@
+package net.earthcomputer.stepfish;
+
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import net.earthcomputer.stepfish.Level.LevelObject;
+import net.earthcomputer.stepfish.geom.collision.BoxList;
+import net.earthcomputer.stepfish.geom.collision.SpatialGrid;
+import net.earthcomputer.stepfish.object.GameObject;
+import net.earthcomputer.stepfish.object.ObjectTypes;
+import net.earthcomputer.stepfish.object.PhysicsObject;
+import net.earthcomputer.stepfish.object.PhysicsStore;
+import net.earthcomputer.stepfish.object.PlayerObject;
+import net.earthcomputer.stepfish.profiler.TickProfiler;
+import net.earthcomputer.stepfish.util.AlwaysTruePredicate;
+import net.earthcomputer.stepfish.util.CommandQueue;
+import net.earthcomputer.stepfish.util.DepthOrderedSet;
+import net.earthcomputer.stepfish.util.GameObjectCreator;
+import net.earthcomputer.stepfish.util.IInputSource;
+import net.earthcomputer.stepfish.util.InstanceOfPredicate;
+import net.earthcomputer.stepfish.util.Predicate;
+import net.earthcomputer.stepfish.util.StateBuffer;
+
+/**
+ * The objects in a level and everything needed to simulate them, without any
+ * drawing or GUI. Anything which affects the game outside the level is passed
+ * on to the world listener.
+ *
+ * Changes to the objects in the world are made at the end of the tick, in
+ * {@link #runScheduledTasks()}, so they may be requested from any thread.
+ *
+ * Runs of consecutive {@link IParallelUpdateListener}s in the update order
+ * are updated as a batch, and the changes they make to the world are
+ * committed at the end of the batch in update order. If the world has a pool
+ * to update in parallel with, big enough batches are updated in parallel.
+ * Small batches, and every batch without a pool, are updated on the ticking
+ * thread, but their changes are still held back in the same way, so the
+ * result doesn't depend on whether or how the batch was split between threads.
+ *
+ * With assertions enabled, the rules parallel update listeners must follow
+ * are checked: an update must only move its own object, and must only query
+ * for objects which aren't other parallel update listeners.
+ */
+public class World {
+
+	/**
+	 * Set to the number of threads to update objects with, to update in
+	 * parallel
+	 */
+	public static final String PARALLEL_UPDATES_PROPERTY = "stepfish.parallelUpdates";
+	/**
+	 * Set to true to keep the physics objects of each level in one
+	 * {@link PhysicsStore}, and move each run of them which are next to each
+	 * other in update order together, rather than each in its own update
+	 */
+	public static final String BATCH_PHYSICS_PROPERTY = "stepfish.batchPhysics";
+
+	/** Batches smaller than this are updated serially, it's not worth splitting them up */
+	private static final int MIN_PARALLEL_BATCH = 64;
+	/** Whether assertions are enabled for this class, so the rules of parallel updates are worth checking */
+	private static final boolean CHECK_PARALLEL_UPDATES = areAssertionsEnabled();
+	/** The number of listeners each parallel task updates without splitting further */
+	private static final int LISTENERS_PER_TASK = 32;
+
+	/** Runs a Runnable */
+	private static final int COMMAND_RUN = 0;
+	/** Adds a game object, and its update listener if it is one */
+	private static final int COMMAND_ADD_OBJECT = 1;
+	/** Removes a game object, and its update listener if it is one */
+	private static final int COMMAND_REMOVE_OBJECT = 2;
+	private static final int COMMAND_ADD_UPDATE_LISTENER = 3;
+	private static final int COMMAND_REMOVE_UPDATE_LISTENER = 4;
+	/** Moves a game object to the place for its new depth */
+	private static final int COMMAND_UPDATE_DEPTH = 5;
+	/**
+	 * Replaces the contents of the world with a {@link LoadedLevel}, once the
+	 * rest of the drain has run
+	 */
+	private static final int COMMAND_LOAD_LEVEL = 6;
+	/**
+	 * Removes a game object which has been stored by the level streamer, like
+	 * {@link #COMMAND_REMOVE_OBJECT} but without telling the streamer
+	 */
+	private static final int COMMAND_UNLOAD_OBJECT = 7;
+	/**
+	 * Puts the world back to a {@link WorldSnapshot}, once the rest of the
+	 * drain has run
+	 */
+	private static final int COMMAND_RESTORE_SNAPSHOT = 8;
+	/** Runs a Runnable once the rest of the drain has run */
+	private static final int COMMAND_RUN_AFTER_SCHEDULED_TASKS = 9;
+
+	private final IWorldListener listener;
+	private final IInputSource input;
+
+	/**
+	 * The objects in the level, in drawing order. Synchronized on itself. This
+	 * and the other containers of the level's contents are replaced whenever a
+	 * level is loaded
+	 */
+	private volatile DepthOrderedSet<GameObject> objects = new DepthOrderedSet<GameObject>();
+	/** The update listeners, in update order. Synchronized on itself */
+	private DepthOrderedSet<IUpdateListener> updateListeners = new DepthOrderedSet<IUpdateListener>();
+	/**
+	 * Changes to make at the end of the tick. Each command is one of the
+	 * COMMAND_ constants and the object it applies to, so adding and removing
+	 * objects doesn't need a task to be created for each one
+	 */
+	private final CommandQueue commands = new CommandQueue();
+	private final CommandQueue.ICommandHandler commandHandler = new CommandQueue.ICommandHandler() {
+		@Override
+		public void handle(int type, Object target) {
+			runCommand(type, target);
+		}
+	};
+	/** Broadphase for collision queries, only accessed from the ticking thread */
+	private SpatialGrid spatialGrid = new SpatialGrid();
+	/**
+	 * The physics objects of the current level, or null if they each keep
+	 * their own. Only accessed from the ticking thread
+	 */
+	private PhysicsStore physicsStore;
+	/** Whether levels loaded from now on get a physics store */
+	private boolean batchPhysics = Boolean.getBoolean(BATCH_PHYSICS_PROPERTY);
+	/** The static objects of the current level */
+	private volatile TileMap tileMap;
+	/** Null if the world isn't being profiled */
+	private TickProfiler profiler;
+
+	/** Null if the world is updated serially */
+	private ForkJoinPool updatePool;
+	/** Batches smaller than this are updated serially even if there's a pool */
+	private int minParallelBatch = MIN_PARALLEL_BATCH;
+	/**
+	 * True while a batch of parallel update listeners is being updated, on the
+	 * pool or on the ticking thread
+	 */
+	private volatile boolean updatingBatch;
+	/**
+	 * The update listeners in update order, copied at the start of each update
+	 * so that runs of physics objects can be found. Only accessed from the
+	 * ticking thread
+	 */
+	private IUpdateListener[] updateOrder = new IUpdateListener[16];
+	/** The run of physics objects being integrated, only accessed from the ticking thread */
+	private PhysicsObject[] physicsRun = new PhysicsObject[4];
+	/** The batch of parallel update listeners, only accessed from the ticking thread */
+	private final List<IUpdateListener> parallelBatch = new ArrayList<IUpdateListener>();
+	/**
+	 * The effects held back by each listener in the batch, or null for those
+	 * which haven't held any back. Each element is only accessed by the thread
+	 * updating that listener until the batch has finished
+	 */
+	private List<Runnable>[] batchEffects = newEffectsArray(MIN_PARALLEL_BATCH);
+	/** Which listener in the batch the current thread is updating */
+	private final ThreadLocal<int[]> batchIndex = new ThreadLocal<int[]>();
+
+	private Level level;
+	/** Null if the current level is small enough to be loaded all at once */
+	private LevelStreamer streamer;
+	/**
+	 * The state of the current level when it was loaded, or null if it can't
+	 * be snapshotted. Only accessed from the ticking thread
+	 */
+	private WorldSnapshot levelStartSnapshot;
+	/**
+	 * The {@link LoadedLevel}s and {@link WorldSnapshot}s asked for in the
+	 * current drain, which are put in place once the rest of it has run. Only
+	 * accessed from the ticking thread
+	 */
+	private final List<Object> pendingLevelChanges = new ArrayList<Object>();
+	/**
+	 * Tasks to run once the rest of the current drain has run. Only accessed
+	 * from the ticking thread
+	 */
+	private final List<Runnable> afterScheduledTasks = new ArrayList<Runnable>();
+
+	public World(IWorldListener listener, IInputSource input) {
+		this.listener = listener;
+		this.input = input;
+	}
+
+	public GameObject addObject(double x, double y, int id) {
+		return addObject(x, y, ObjectTypes.getCreatorById(id));
+	}
+
+	public <T extends GameObject> T addObject(double x, double y, GameObjectCreator<T> creator) {
+		T instance = creator.create(x, y);
+		if (instance != null) {
+			instance.setWorld(this);
+			queueCommand(COMMAND_ADD_OBJECT, instance);
+		}
+		return instance;
+	}
+
+	public void removeObject(GameObject object) {
+		queueCommand(COMMAND_REMOVE_OBJECT, object);
+	}
+
+	/** Called by the level streamer to remove an object it has stored away */
+	void unloadObject(GameObject object) {
+		queueCommand(COMMAND_UNLOAD_OBJECT, object);
+	}
+
+	public void addUpdateListener(IUpdateListener updateListener) {
+		queueCommand(COMMAND_ADD_UPDATE_LISTENER, updateListener);
+	}
+
+	public void removeUpdateListener(IUpdateListener updateListener) {
+		queueCommand(COMMAND_REMOVE_UPDATE_LISTENER, updateListener);
+	}
+
+	/**
+	 * Called by game objects when their depth changes, to move them to the
+	 * right place in the drawing and update order at the end of the tick
+	 */
+	public void onDepthChanged(GameObject object) {
+		queueCommand(COMMAND_UPDATE_DEPTH, object);
+	}
+
+	/**
+	 * Update listeners which are objects are updated in order of decreasing
+	 * depth, followed by the other update listeners
+	 */
+	private static int getUpdateDepth(IUpdateListener updateListener) {
+		if (updateListener instanceof GameObject) {
+			return ((GameObject) updateListener).getDepth();
+		} else {
+			return Integer.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Replaces everything in the world with the contents of the given level, at
+	 * the end of the tick. The objects are created straight away, on the
+	 * calling thread, so the end of the tick only has to swap them in
+	 */
+	public void loadLevel(Level level) {
+		queueCommand(COMMAND_LOAD_LEVEL, new LoadedLevel(level));
+		this.level = level;
+	}
+
+	/**
+	 * Puts the current level back to how it was when it was loaded, at the end
+	 * of the tick. The objects are reused rather than created again, unless the
+	 * level couldn't be snapshotted, in which case it's loaded again
+	 */
+	public void restartLevel() {
+		runLater(new Runnable() {
+			@Override
+			public void run() {
+				if (levelStartSnapshot == null) {
+					if (level != null)
+						loadLevel(level);
+				} else {
+					restoreSnapshot(levelStartSnapshot);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the state of the world, so that it can be put back to it later
+	 * with {@link #restoreSnapshot(WorldSnapshot)}. Must be called on the
+	 * ticking thread between ticks, for example in a task run later. Returns
+	 * null if there is no level, or if the level is streamed, as most of its
+	 * objects aren't in the world
+	 */
+	public WorldSnapshot takeSnapshot() {
+		if (tileMap == null || streamer != null)
+			return null;
+		// In the order they were added, so that the restored objects keep their
+		// order within a depth through later depth changes
+		GameObject[] objectArray;
+		synchronized (objects) {
+			List<GameObject> objectList = objects.toInsertionOrderList();
+			objectArray = objectList.toArray(new GameObject[objectList.size()]);
+		}
+		return new WorldSnapshot(tileMap, objectArray);
+	}
+
+	/**
+	 * Returns a hash of the types and state of the objects in the world and of
+	 * the tiles, for checking that two runs of a level ended up the same. Must
+	 * be called on the ticking thread between ticks
+	 */
+	public long computeStateChecksum() {
+		long hash = 1;
+		StateBuffer state = new StateBuffer();
+		synchronized (objects) {
+			for (GameObject object : objects) {
+				hash = hash * 31 + object.getClass().getName().hashCode();
+				object.writeState(state);
+			}
+		}
+		for (int i = 0; i < state.size(); i++) {
+			hash = hash * 31 + state.readLong();
+		}
+		TileMap tileMap = this.tileMap;
+		if (tileMap != null) {
+			hash = hash * 31 + tileMap.hashTiles();
+		}
+		return hash;
+	}
+
+	/**
+	 * Puts the world back to the given snapshot at the end of the tick. Objects
+	 * added since the snapshot are removed, and objects removed since are
+	 * added back. Snapshots of a level which is no longer loaded are ignored
+	 */
+	public void restoreSnapshot(WorldSnapshot snapshot) {
+		queueCommand(COMMAND_RESTORE_SNAPSHOT, snapshot);
+	}
+
+	/**
+	 * Runs a whole tick: updates the objects, then runs the scheduled tasks.
+	 * This is the whole tick to the profiler, if there is one
+	 */
+	public void tick() {
+		TickProfiler profiler = this.profiler;
+		if (profiler == null) {
+			updateObjects();
+			runScheduledTasks();
+		} else {
+			profiler.startTick();
+			TickProfiler.Section section = profiler.getSection("update");
+			profiler.start(section);
+			updateObjects();
+			profiler.end(section);
+			section = profiler.getSection("runLater");
+			profiler.start(section);
+			runScheduledTasks();
+			profiler.end(section);
+			profiler.endTick();
+		}
+	}
+
+	/**
+	 * Updates all the update listeners, in order, or in parallel batches if the
+	 * world has an update pool.
+	 *
+	 * With batch physics, each run of physics objects which are next to each
+	 * other in update order, such as the players, which all have the same
+	 * depth, is integrated together just before the first of them updates.
+	 * Everything updated before the run sees the objects where they were, and
+	 * everything after sees them moved, the same as without batch physics.
+	 * The only difference is that objects in a run see each other already
+	 * moved
+	 */
+	public void updateObjects() {
+		TickProfiler profiler = this.profiler;
+		PhysicsStore physicsStore = this.physicsStore;
+		synchronized (updateListeners) {
+			int count = updateListeners.size();
+			if (updateOrder.length < count) {
+				updateOrder = new IUpdateListener[Math.max(count, updateOrder.length * 2)];
+			}
+			IUpdateListener[] order = updateListeners.toArray(updateOrder);
+			int integratedUntil = 0;
+			for (int i = 0; i < count; i++) {
+				IUpdateListener updateListener = order[i];
+				if (physicsStore != null && i >= integratedUntil && isInStore(updateListener, physicsStore)) {
+					// The listeners before the run mustn't see it move
+					updateBatch(profiler);
+					integratedUntil = integrateRun(order, i, count, physicsStore, profiler);
+				}
+				if (updateListener instanceof IParallelUpdateListener) {
+					parallelBatch.add(updateListener);
+				} else {
+					updateBatch(profiler);
+					updateSerially(updateListener, profiler);
+				}
+			}
+			updateBatch(profiler);
+			// Don't keep removed listeners from being garbage collected
+			Arrays.fill(order, 0, count, null);
+		}
+		if (streamer != null) {
+			streamer.tick();
+		}
+	}
+
+	private static boolean isInStore(IUpdateListener updateListener, PhysicsStore physicsStore) {
+		return updateListener instanceof PhysicsObject && physicsStore.contains((PhysicsObject) updateListener);
+	}
+
+	/**
+	 * Integrates the run of physics objects in the store starting at the given
+	 * index in the update order, returning the index after the end of the run
+	 */
+	private int integrateRun(IUpdateListener[] order, int start, int count, PhysicsStore physicsStore,
+			TickProfiler profiler) {
+		int end = start;
+		while (end < count && isInStore(order[end], physicsStore)) {
+			if (end - start == physicsRun.length) {
+				physicsRun = Arrays.copyOf(physicsRun, physicsRun.length * 2);
+			}
+			physicsRun[end - start] = (PhysicsObject) order[end];
+			end++;
+		}
+
+		if (profiler == null) {
+			physicsStore.integrate(physicsRun, end - start);
+		} else {
+			TickProfiler.Section section = profiler.getSection("physics");
+			profiler.start(section);
+			physicsStore.integrate(physicsRun, end - start);
+			profiler.end(section);
+		}
+		Arrays.fill(physicsRun, 0, end - start, null);
+		return end;
+	}
+
+	private void updateSerially(IUpdateListener updateListener, TickProfiler profiler) {
+		if (profiler == null) {
+			updateListener.update();
+		} else {
+			TickProfiler.Section section = profiler.getUpdateSection(updateListener.getClass());
+			profiler.start(section);
+			updateListener.update();
+			profiler.end(section);
+		}
+	}
+
+	/**
+	 * Updates the listeners in the parallel batch, in parallel if there's a
+	 * pool and the batch is big enough, then commits what they did in update
+	 * order, and empties the batch
+	 */
+	private void updateBatch(TickProfiler profiler) {
+		int size = parallelBatch.size();
+		if (size == 0)
+			return;
+		boolean parallel = updatePool != null && size >= minParallelBatch;
+
+		TickProfiler.Section section = null;
+		if (profiler != null && parallel) {
+			// Sections can't be timed on more than one thread at once, so the
+			// batch is timed as a whole
+			section = profiler.getSection("update/parallel");
+			profiler.start(section);
+		}
+
+		if (batchEffects.length < size) {
+			batchEffects = newEffectsArray(Math.max(size, batchEffects.length * 2));
+		}
+		updatingBatch = true;
+		try {
+			if (parallel) {
+				updatePool.invoke(new UpdateBatchTask(0, size));
+			} else {
+				int[] index = getBatchIndex();
+				try {
+					for (int i = 0; i < size; i++) {
+						index[0] = i;
+						updateSerially(parallelBatch.get(i), profiler);
+					}
+				} finally {
+					index[0] = -1;
+				}
+			}
+		} finally {
+			updatingBatch = false;
+		}
+
+		// Commit the changes
+		for (int i = 0; i < size; i++) {
+			IUpdateListener updateListener = parallelBatch.get(i);
+			if (updateListener instanceof GameObject) {
+				spatialGrid.update((GameObject) updateListener);
+			}
+			List<Runnable> effects = batchEffects[i];
+			if (effects != null) {
+				batchEffects[i] = null;
+				for (Runnable effect : effects) {
+					effect.run();
+				}
+			}
+		}
+		parallelBatch.clear();
+
+		if (section != null) {
+			profiler.end(section);
+		}
+	}
+
+	/** Returns the holder of the index in the batch of the listener the current thread is updating */
+	private int[] getBatchIndex() {
+		int[] index = batchIndex.get();
+		if (index == null) {
+			index = new int[] { -1 };
+			batchIndex.set(index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the listener the current thread is updating in the current
+	 * batch, or null if it isn't updating one
+	 */
+	private IUpdateListener getBatchListener() {
+		int[] index = batchIndex.get();
+		return index == null || index[0] < 0 ? null : parallelBatch.get(index[0]);
+	}
+
+	/**
+	 * Wraps a query's filter, while a batch is being updated, to check that it
+	 * doesn't let through other parallel update listeners, whose state may be
+	 * changing on other threads
+	 */
+	private Predicate<GameObject> checkBatchFilter(final Predicate<GameObject> filter) {
+		if (!CHECK_PARALLEL_UPDATES || !updatingBatch)
+			return filter;
+		final IUpdateListener updating = getBatchListener();
+		return new Predicate<GameObject>() {
+			@Override
+			public boolean apply(GameObject input) {
+				boolean result = filter.apply(input);
+				if (result && input instanceof IParallelUpdateListener && input != updating)
+					throw new AssertionError("A parallel update of " + updating + " queried " + input
+							+ ", which is also a parallel update listener");
+				return result;
+			}
+		};
+	}
+
+	private static boolean areAssertionsEnabled() {
+		boolean enabled = false;
+		assert enabled = true;
+		return enabled;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<Runnable>[] newEffectsArray(int length) {
+		return new List[length];
+	}
+
+	/**
+	 * Returns the list to hold back effects of the current thread's update in
+	 * until the end of the parallel batch, or null if they should be applied
+	 * straight away
+	 */
+	private List<Runnable> getHeldBackEffects() {
+		if (!updatingBatch)
+			return null;
+		int[] index = batchIndex.get();
+		// Other threads, such as the GUI, aren't held back
+		if (index == null || index[0] < 0)
+			return null;
+		List<Runnable> effects = batchEffects[index[0]];
+		if (effects == null) {
+			effects = new ArrayList<Runnable>(2);
+			batchEffects[index[0]] = effects;
+		}
+		return effects;
+	}
+
+	/**
+	 * Runs a change to objects other than the one being updated. This runs the
+	 * change straight away, unless it is made from the update of a parallel
+	 * update listener, in which case it is held back until the end of its batch
+	 */
+	public void runEffect(Runnable effect) {
+		List<Runnable> effects = getHeldBackEffects();
+		if (effects == null) {
+			effect.run();
+		} else {
+			effects.add(effect);
+		}
+	}
+
+	/**
+	 * Sets the pool to update parallel update listeners with, or null to update
+	 * everything on the ticking thread
+	 */
+	public void setUpdatePool(ForkJoinPool updatePool) {
+		this.updatePool = updatePool;
+	}
+
+	/**
+	 * Sets the smallest batch which is updated in parallel when there's a pool.
+	 * Lowering it lets the small bundled levels be checked in parallel
+	 */
+	void setMinParallelBatch(int minParallelBatch) {
+		this.minParallelBatch = minParallelBatch;
+	}
+
+	/**
+	 * Creates a pool to update with if the {@value #PARALLEL_UPDATES_PROPERTY}
+	 * system property is set to more than one thread. Otherwise, returns null
+	 */
+	public static ForkJoinPool createUpdatePoolIfEnabled() {
+		int threads = Integer.getInteger(PARALLEL_UPDATES_PROPERTY, 0);
+		return threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+
+	/**
+	 * Runs the tasks scheduled with {@link #runLater(Runnable)}, including
+	 * adding and removing objects. Loading a level and restoring a snapshot
+	 * are left until every other task has run, including the tasks those
+	 * queue, so that none of the tick's tasks see the new level
+	 */
+	public void runScheduledTasks() {
+		// The objects aren't locked while a batch reads them
+		assert !updatingBatch : "Scheduled tasks run during the update of a parallel batch";
+		commands.drain(commandHandler);
+		while (!afterScheduledTasks.isEmpty() || !pendingLevelChanges.isEmpty()) {
+			if (!afterScheduledTasks.isEmpty()) {
+				Runnable[] tasks = afterScheduledTasks.toArray(new Runnable[afterScheduledTasks.size()]);
+				afterScheduledTasks.clear();
+				for (Runnable task : tasks) {
+					task.run();
+				}
+			} else {
+				Object levelChange = pendingLevelChanges.remove(0);
+				if (levelChange instanceof LoadedLevel) {
+					load((LoadedLevel) levelChange);
+				} else {
+					restore((WorldSnapshot) levelChange);
+				}
+			}
+			commands.drain(commandHandler);
+		}
+	}
+
+	public void runLater(Runnable task) {
+		queueCommand(COMMAND_RUN, task);
+	}
+
+	/**
+	 * Runs a task at the end of the tick, once every other scheduled task has
+	 * run, but before any level the tick asked for is loaded or restored. This
+	 * is the state the world ends the tick in when the level doesn't change
+	 */
+	public void runAfterScheduledTasks(Runnable task) {
+		queueCommand(COMMAND_RUN_AFTER_SCHEDULED_TASKS, task);
+	}
+
+	private void queueCommand(final int type, final Object target) {
+		List<Runnable> effects = getHeldBackEffects();
+		if (effects == null) {
+			commands.offer(type, target);
+		} else {
+			// Keep the commands in update order
+			effects.add(new Runnable() {
+				@Override
+				public void run() {
+					commands.offer(type, target);
+				}
+			});
+		}
+	}
+
+	private void runCommand(int type, Object target) {
+		switch (type) {
+		case COMMAND_RUN:
+			((Runnable) target).run();
+			break;
+		case COMMAND_ADD_OBJECT: {
+			GameObject object = (GameObject) target;
+			synchronized (objects) {
+				objects.add(object, object.getDepth());
+			}
+			spatialGrid.add(object);
+			if (object instanceof IUpdateListener) {
+				synchronized (updateListeners) {
+					updateListeners.add((IUpdateListener) object, object.getDepth());
+				}
+			}
+			object.onAdded();
+			break;
+		}
+		case COMMAND_REMOVE_OBJECT:
+		case COMMAND_UNLOAD_OBJECT: {
+			GameObject object = (GameObject) target;
+			boolean removed;
+			synchronized (objects) {
+				removed = objects.remove(object);
+			}
+			if (!removed) {
+				// Already removed, such as an object the game removed in the
+				// same tick the streamer unloaded it. The streamer still needs
+				// to hear about the removal so it doesn't load it again
+				if (type == COMMAND_REMOVE_OBJECT && streamer != null) {
+					streamer.onObjectRemoved(object);
+				}
+				break;
+			}
+			spatialGrid.remove(object);
+			if (object instanceof IUpdateListener) {
+				synchronized (updateListeners) {
+					updateListeners.remove(object);
+				}
+			}
+			object.onRemoved();
+			if (type == COMMAND_REMOVE_OBJECT && streamer != null) {
+				streamer.onObjectRemoved(object);
+			}
+			break;
+		}
+		case COMMAND_ADD_UPDATE_LISTENER: {
+			IUpdateListener updateListener = (IUpdateListener) target;
+			synchronized (updateListeners) {
+				updateListeners.add(updateListener, getUpdateDepth(updateListener));
+			}
+			break;
+		}
+		case COMMAND_REMOVE_UPDATE_LISTENER:
+			synchronized (updateListeners) {
+				updateListeners.remove(target);
+			}
+			break;
+		case COMMAND_UPDATE_DEPTH: {
+			GameObject object = (GameObject) target;
+			synchronized (objects) {
+				objects.setDepth(object, object.getDepth());
+			}
+			if (object instanceof IUpdateListener) {
+				synchronized (updateListeners) {
+					updateListeners.setDepth((IUpdateListener) object, object.getDepth());
+				}
+			}
+			break;
+		}
+		case COMMAND_LOAD_LEVEL:
+		case COMMAND_RESTORE_SNAPSHOT:
+			pendingLevelChanges.add(target);
+			break;
+		case COMMAND_RUN_AFTER_SCHEDULED_TASKS:
+			afterScheduledTasks.add((Runnable) target);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown command type " + type);
+		}
+	}
+
+	private void load(LoadedLevel loadedLevel) {
+		tileMap = loadedLevel.tileMap;
+		objects = loadedLevel.objects;
+		updateListeners = loadedLevel.updateListeners;
+		spatialGrid = loadedLevel.spatialGrid;
+		physicsStore = loadedLevel.physicsStore;
+		streamer = loadedLevel.streamer;
+		for (GameObject object : loadedLevel.objectsInLevelOrder) {
+			object.onAdded();
+		}
+		if (streamer != null) {
+			// The objects near the players are added by the drain after this
+			streamer.checkChunks();
+		}
+		levelStartSnapshot = takeSnapshot();
+	}
+
+	private void restore(WorldSnapshot snapshot) {
+		if (snapshot.tileMap != tileMap)
+			return;
+
+		GameObject[] snapshotObjects = snapshot.objects;
+		// The objects are put in a new grid once they've moved back, so the
+		// old one doesn't need to follow them
+		SpatialGrid newSpatialGrid = new SpatialGrid(snapshotObjects.length);
+		spatialGrid = newSpatialGrid;
+		StateBuffer state = snapshot.state;
+		state.rewind();
+		for (GameObject object : snapshotObjects) {
+			object.readState(state);
+		}
+		tileMap.setTiles(snapshot.tiles);
+
+		// Rebuild the containers in the snapshot's order, rather than adding
+		// and removing the objects which differ, so that objects at the same
+		// depth update in the same order as they did when the snapshot was
+		// taken
+		DepthOrderedSet<GameObject> oldObjects = objects;
+		DepthOrderedSet<GameObject> newObjects = new DepthOrderedSet<GameObject>(snapshotObjects.length);
+		DepthOrderedSet<IUpdateListener> newUpdateListeners = new DepthOrderedSet<IUpdateListener>(
+				snapshotObjects.length);
+		for (GameObject object : snapshotObjects) {
+			newObjects.add(object, object.getDepth());
+			newSpatialGrid.add(object);
+			if (object instanceof IUpdateListener) {
+				newUpdateListeners.add((IUpdateListener) object, object.getDepth());
+			}
+		}
+		synchronized (updateListeners) {
+			for (IUpdateListener updateListener : updateListeners) {
+				if (!(updateListener instanceof GameObject)) {
+					newUpdateListeners.add(updateListener, getUpdateDepth(updateListener));
+				}
+			}
+		}
+
+		List<GameObject> removedObjects = new ArrayList<GameObject>();
+		synchronized (oldObjects) {
+			for (GameObject object : oldObjects) {
+				if (!newObjects.contains(object)) {
+					removedObjects.add(object);
+				}
+			}
+		}
+
+		objects = newObjects;
+		updateListeners = newUpdateListeners;
+
+		for (GameObject object : removedObjects) {
+			object.onRemoved();
+		}
+		for (GameObject object : snapshotObjects) {
+			if (!oldObjects.contains(object)) {
+				object.onAdded();
+			}
+		}
+	}
+
+	/**
+	 * Returns the objects in the world, in drawing order. Callers must
+	 * synchronize on the returned set while iterating over it, and must not
+	 * modify it
+	 */
+	public DepthOrderedSet<GameObject> getObjects() {
+		return objects;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends GameObject> List<T> listObjects(Class<T> clazz) {
+		return (List<T>) listObjects(new InstanceOfPredicate<GameObject>(clazz));
+	}
+
+	/**
+	 * Lists the objects matching the given predicate. This doesn't include the
+	 * static objects in the tile map
+	 */
+	public List<GameObject> listObjects(Predicate<GameObject> predicate) {
+		predicate = checkBatchFilter(predicate);
+		List<GameObject> objectsFound = new ArrayList<GameObject>();
+		if (updatingBatch) {
+			// The objects are only changed by the ticking thread, which is
+			// waiting for the batch, so don't make the updates wait for each
+			// other
+			listObjects(predicate, objectsFound);
+		} else {
+			synchronized (objects) {
+				listObjects(predicate, objectsFound);
+			}
+		}
+		return objectsFound;
+	}
+
+	private void listObjects(Predicate<GameObject> predicate, List<GameObject> objectsFound) {
+		for (GameObject object : objects) {
+			if (predicate.apply(object)) {
+				objectsFound.add(object);
+			}
+		}
+	}
+
+	public List<GameObject> getObjectsThatCollideWith(GameObject object) {
+		return getObjectsThatCollideWith(object, new AlwaysTruePredicate<GameObject>());
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends GameObject> List<T> getObjectsThatCollideWith(GameObject object, Class<T> type) {
+		return (List<T>) getObjectsThatCollideWith(object, new InstanceOfPredicate<GameObject>(type));
+	}
+
+	public List<GameObject> getObjectsThatCollideWith(GameObject object, Predicate<GameObject> filter) {
+		filter = checkBatchFilter(filter);
+		if (profiler != null)
+			profiler.onCollisionQuery(object.getClass());
+		List<GameObject> objectsFound = new ArrayList<GameObject>();
+		if (object.hasCollisionMask()) {
+			TileMap tileMap = this.tileMap;
+			if (tileMap != null) {
+				tileMap.getTilesThatCollideWith(object, filter, objectsFound);
+			}
+			spatialGrid.getObjectsThatCollideWith(object, filter, objectsFound);
+		}
+		return objectsFound;
+	}
+
+	public List<GameObject> getObjectsThatCollideWith(Shape shape) {
+		return getObjectsThatCollideWith(shape, new AlwaysTruePredicate<GameObject>());
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends GameObject> List<T> getObjectsThatCollideWith(Shape shape, Class<T> type) {
+		return (List<T>) getObjectsThatCollideWith(shape, new InstanceOfPredicate<GameObject>(type));
+	}
+
+	public List<GameObject> getObjectsThatCollideWith(Shape shape, Predicate<GameObject> filter) {
+		filter = checkBatchFilter(filter);
+		List<GameObject> objectsFound = new ArrayList<GameObject>();
+		if (shape != null) {
+			if (profiler != null)
+				profiler.onCollisionQuery(shape.getClass());
+			Rectangle2D bounds = shape.getBounds2D();
+			double minX = bounds.getMinX(), minY = bounds.getMinY(), maxX = bounds.getMaxX(), maxY = bounds.getMaxY();
+			TileMap tileMap = this.tileMap;
+			if (tileMap != null) {
+				tileMap.getTilesThatCollideWith(shape, minX, minY, maxX, maxY, filter, objectsFound);
+			}
+			spatialGrid.getObjectsThatCollideWith(shape, minX, minY, maxX, maxY, filter, objectsFound);
+		}
+		return objectsFound;
+	}
+
+	public boolean isObjectCollidedWith(GameObject object, Class<? extends GameObject> type) {
+		return isObjectCollidedWith(object, new InstanceOfPredicate<GameObject>(type));
+	}
+
+	public boolean isObjectCollidedWith(GameObject object, Predicate<GameObject> filter) {
+		filter = checkBatchFilter(filter);
+		if (profiler != null)
+			profiler.onCollisionQuery(object.getClass());
+		if (!object.hasCollisionMask())
+			return false;
+		TileMap tileMap = this.tileMap;
+		if (tileMap != null && tileMap.isObjectCollidedWith(object, filter))
+			return true;
+		return spatialGrid.isObjectCollidedWith(object, filter);
+	}
+
+	public boolean isShapeCollidedWith(Shape shape, Class<? extends GameObject> type) {
+		return isShapeCollidedWith(shape, new InstanceOfPredicate<GameObject>(type));
+	}
+
+	public boolean isShapeCollidedWith(Shape shape, Predicate<GameObject> filter) {
+		filter = checkBatchFilter(filter);
+		if (shape == null)
+			return false;
+		if (profiler != null)
+			profiler.onCollisionQuery(shape.getClass());
+		Rectangle2D bounds = shape.getBounds2D();
+		double minX = bounds.getMinX(), minY = bounds.getMinY(), maxX = bounds.getMaxX(), maxY = bounds.getMaxY();
+		TileMap tileMap = this.tileMap;
+		if (tileMap != null && tileMap.isShapeCollidedWith(shape, minX, minY, maxX, maxY, filter))
+			return true;
+		return spatialGrid.isShapeCollidedWith(shape, minX, minY, maxX, maxY, filter);
+	}
+
+	/**
+	 * Adds the collision mask bounds of all objects and tiles matching the given
+	 * filter which touch the given area to the result list
+	 */
+	public void getCollisionBoundsInArea(double minX, double minY, double maxX, double maxY,
+			Predicate<GameObject> filter, BoxList result) {
+		filter = checkBatchFilter(filter);
+		TileMap tileMap = this.tileMap;
+		if (tileMap != null) {
+			tileMap.getBoundsInArea(minX, minY, maxX, maxY, filter, result);
+		}
+		spatialGrid.getBoundsInArea(minX, minY, maxX, maxY, filter, result);
+	}
+
+	/**
+	 * Called by game objects whenever their position or collision mask changes,
+	 * to keep the collision broadphase up to date
+	 */
+	public void onObjectMoved(GameObject object) {
+		// The grid can't be changed while it's being queried in parallel, so
+		// objects in a parallel batch are updated in the grid at the end of it
+		if (!updatingBatch) {
+			spatialGrid.update(object);
+		} else if (CHECK_PARALLEL_UPDATES && object != getBatchListener()) {
+			throw new AssertionError(object + " was moved during the parallel update of " + getBatchListener());
+		}
+	}
+
+	/**
+	 * Sets the profiler which times the update of each class of update listener
+	 * and counts collision queries, or null to stop profiling
+	 */
+	public void setProfiler(TickProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/** Returns the static objects of the current level */
+	public TileMap getTileMap() {
+		return tileMap;
+	}
+
+	/** Returns the level which was last loaded */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Returns the store the physics objects of the current level are moved
+	 * together in, or null if batch physics isn't enabled. Only accessed from
+	 * the ticking thread
+	 */
+	public PhysicsStore getPhysicsStore() {
+		return physicsStore;
+	}
+
+	/**
+	 * Sets whether the physics objects of levels loaded from now on are kept in
+	 * one store and moved in runs, see {@link #updateObjects()}. The default
+	 * comes from the
+	 * {@value #BATCH_PHYSICS_PROPERTY} system property
+	 */
+	public void setBatchPhysics(boolean batchPhysics) {
+		this.batchPhysics = batchPhysics;
+	}
+
+	/**
+	 * Returns the streamer of the current level, or null if it's small enough
+	 * to be loaded all at once. Only accessed from the ticking thread
+	 */
+	public LevelStreamer getLevelStreamer() {
+		return streamer;
+	}
+
+	public int getWidth() {
+		return level.width;
+	}
+
+	public int getHeight() {
+		return level.height;
+	}
+
+	/** Returns the input which controls the players */
+	public IInputSource getInput() {
+		return input;
+	}
+
+	public void failLevel(PlayerObject player) {
+		failLevel(player, null);
+	}
+
+	public void failLevel(final PlayerObject player, final GameObject cause) {
+		runEffect(new Runnable() {
+			@Override
+			public void run() {
+				player.setSpeed(0);
+				listener.onLevelFailed(player, cause);
+			}
+		});
+	}
+
+	public void completeLevel() {
+		runEffect(new Runnable() {
+			@Override
+			public void run() {
+				listener.onLevelCompleted();
+			}
+		});
+	}
+
+	public void completeStar(final int index) {
+		runEffect(new Runnable() {
+			@Override
+			public void run() {
+				listener.onStarCollected(index);
+			}
+		});
+	}
+
+	public boolean isStarObtained(int index) {
+		return listener.isStarObtained(index);
+	}
+
+	public void requestPause() {
+		runEffect(new Runnable() {
+			@Override
+			public void run() {
+				listener.onPauseRequested();
+			}
+		});
+	}
+
+	public void playSound(final String name) {
+		runEffect(new Runnable() {
+			@Override
+			public void run() {
+				listener.playSound(name);
+			}
+		});
+	}
+
+	/**
+	 * The contents of a level, built up all at once rather than an object at a
+	 * time, to be swapped into the world between ticks
+	 */
+	private class LoadedLevel {
+
+		private final TileMap tileMap;
+		private final DepthOrderedSet<GameObject> objects;
+		private final DepthOrderedSet<IUpdateListener> updateListeners;
+		private final SpatialGrid spatialGrid;
+		/** Null unless batch physics is enabled. The objects join it when they're added */
+		private final PhysicsStore physicsStore;
+		private final List<GameObject> objectsInLevelOrder;
+		/** Null if the level isn't streamed */
+		private final LevelStreamer streamer;
+
+		public LoadedLevel(Level level) {
+			LevelObject[] levelObjects = level.objects;
+			tileMap = new TileMap(level);
+			if (LevelStreamer.shouldStream(level)) {
+				// Only the objects which are never stored away are created now
+				streamer = new LevelStreamer(World.this, level);
+				levelObjects = getAlwaysLoadedObjects(levelObjects);
+			} else {
+				streamer = null;
+			}
+			objects = new DepthOrderedSet<GameObject>(levelObjects.length);
+			updateListeners = new DepthOrderedSet<IUpdateListener>(levelObjects.length);
+			spatialGrid = new SpatialGrid(levelObjects.length);
+			physicsStore = batchPhysics ? new PhysicsStore(16) : null;
+			objectsInLevelOrder = new ArrayList<GameObject>(levelObjects.length);
+
+			// Look up each type's creator once rather than for every object
+			GameObjectCreator<?>[] creators = new GameObjectCreator<?>[16];
+			for (LevelObject levelObject : levelObjects) {
+				int id = levelObject.id;
+				if (id >= creators.length) {
+					creators = Arrays.copyOf(creators, Math.max(id + 1, creators.length * 2));
+				}
+				GameObjectCreator<?> creator = creators[id];
+				if (creator == null) {
+					creator = ObjectTypes.getCreatorById(id);
+					creators[id] = creator;
+				}
+
+				GameObject object = creator.create(levelObject.x, levelObject.y);
+				if (object == null)
+					continue;
+				object.setWorld(World.this);
+				objects.add(object, object.getDepth());
+				spatialGrid.add(object);
+				if (object instanceof IUpdateListener) {
+					updateListeners.add((IUpdateListener) object, object.getDepth());
+				}
+				objectsInLevelOrder.add(object);
+			}
+		}
+
+		private LevelObject[] getAlwaysLoadedObjects(LevelObject[] levelObjects) {
+			List<LevelObject> alwaysLoaded = new ArrayList<LevelObject>();
+			for (LevelObject levelObject : levelObjects) {
+				if (!LevelStreamer.isStreamedType(levelObject.id)) {
+					alwaysLoaded.add(levelObject);
+				}
+			}
+			return alwaysLoaded.toArray(new LevelObject[alwaysLoaded.size()]);
+		}
+
+	}
+
+	/** Updates a range of the parallel batch, splitting it up between threads */
+	private class UpdateBatchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -1470283521838513207L;
+
+		private final int from;
+		private final int to;
+
+		public UpdateBatchTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > LISTENERS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new UpdateBatchTask(from, middle), new UpdateBatchTask(middle, to));
+				return;
+			}
+
+			int[] index = getBatchIndex();
+			try {
+				for (int i = from; i < to; i++) {
+					index[0] = i;
+					parallelBatch.get(i).update();
+				}
+			} finally {
+				index[0] = -1;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,39 @@
+package net.earthcomputer.stepfish;
+
+import net.earthcomputer.stepfish.object.GameObject;
+import net.earthcomputer.stepfish.util.StateBuffer;
+
+/**
+ * The state of the objects and tiles in a world at one moment, which the world
+ * can be put back to without creating the objects again. Holds the objects
+ * themselves, in drawing order, and their changing state, as written by
+ * {@link GameObject#writeState(StateBuffer)}.
+ *
+ * Snapshots are taken by {@link World#takeSnapshot()} and restored by
+ * {@link World#restoreSnapshot(WorldSnapshot)}, both on the ticking thread.
+ */
+public class WorldSnapshot {
+
+	/** The tile map of the level the snapshot was taken in */
+	final TileMap tileMap;
+	/** Shared with the tile map, which copies it before changing a tile */
+	final short[] tiles;
+	final GameObject[] objects;
+	final StateBuffer state = new StateBuffer();
+
+	WorldSnapshot(TileMap tileMap, GameObject[] objects) {
+		this.tileMap = tileMap;
+		this.tiles = tileMap.shareTiles();
+		this.objects = objects;
+		for (GameObject object : objects) {
+			object.writeState(state);
+		}
+		state.trim();
+	}
+
+	/** Returns the number of objects in the snapshot */
+	public int getObjectCount() {
+		return objects.length;
+	}
+
+}
@@ -1,6 +1,12 @@
 package net.earthcomputer.stepfish.geom;
 
+import net.earthcomputer.stepfish.util.StateBuffer;
+
 /** Represents a combined speed and direction
+ * 
+ * The components are always up to date, but the speed and direction are only worked out when they're asked for after
+ * the components have changed, as they need a square root and an arctangent. They come out the same as if they had
+ * been worked out straight away
  * 
  * @author Earthcomputer */
 public class Velocity
@@ -9,6 +15,8 @@ public class Velocity
 	private float direction;
 	private float xvel;
 	private float yvel;
+	/** Whether the speed and direction are up to date with the components */
+	private boolean polarValid = true;
 	
 	private Velocity()
 	{
@@ -28,11 +36,11 @@ public class Velocity
 			direction += 180;
 		}
 		vel.speed = speed;
-		direction = vel.directionInBounds(direction);
+		direction = directionInBounds(direction);
 		vel.direction = direction;
 		
-		vel.xvel = (float) (speed * Math.cos(Math.toRadians(direction)));
-		vel.yvel = (float) (speed * Math.sin(Math.toRadians(direction)));
+		vel.xvel = xComponentOf(speed, direction);
+		vel.yvel = yComponentOf(speed, direction);
 		
 		return vel;
 	}
@@ -45,12 +53,9 @@ public class Velocity
 	{
 		Velocity vel = new Velocity();
 		
-		vel.speed = (float) Math.sqrt(xvel * xvel + yvel * yvel);
-		vel.direction = (float) Math.toDegrees(Math.atan2(yvel, xvel));
-		if(vel.direction < 0) vel.direction += 360;
-		
 		vel.xvel = xvel;
 		vel.yvel = yvel;
+		vel.polarValid = false;
 		
 		return vel;
 	}
@@ -60,6 +65,7 @@ public class Velocity
 	 * @see #setSpeed(float) */
 	public float getSpeed()
 	{
+		updatePolar();
 		return speed;
 	}
 	
@@ -69,6 +75,7 @@ public class Velocity
 	 * @see #setDirection(float) */
 	public float getDirection()
 	{
+		updatePolar();
 		return direction;
 	}
 	
@@ -95,6 +102,7 @@ public class Velocity
 	 * @see #getSpeed() */
 	public void setSpeed(float speed)
 	{
+		updatePolar();
 		if(speed < 0)
 		{
 			speed = -speed;
@@ -103,8 +111,8 @@ public class Velocity
 		this.speed = speed;
 		direction = directionInBounds(direction);
 		
-		xvel = (float) (speed * Math.cos(Math.toRadians(direction)));
-		yvel = (float) (speed * Math.sin(Math.toRadians(direction)));
+		xvel = xComponentOf(speed, direction);
+		yvel = yComponentOf(speed, direction);
 	}
 	
 	/** Sets this velocity's direction. For more information, see {@link #getDirection()}
@@ -112,11 +120,12 @@ public class Velocity
 	 * @see #getDirection() */
 	public void setDirection(float direction)
 	{
+		updatePolar();
 		direction = directionInBounds(direction);
 		this.direction = direction;
 		
-		xvel = (float) (speed * Math.cos(Math.toRadians(direction)));
-		yvel = (float) (speed * Math.sin(Math.toRadians(direction)));
+		xvel = xComponentOf(speed, direction);
+		yvel = yComponentOf(speed, direction);
 	}
 	
 	/** Sets the horizontal velocity in this velocity. For more information, see {@link #getXComponent()}
@@ -125,10 +134,7 @@ public class Velocity
 	public void setXComponent(float xvel)
 	{
 		this.xvel = xvel;
-		
-		speed = (float) Math.sqrt(xvel * xvel + yvel * yvel);
-		direction = (float) Math.toDegrees(Math.atan2(yvel, xvel));
-		if(direction < 0) direction += 360;
+		polarValid = false;
 	}
 	
 	/** Sets the vertical velocity in this velocity. For more information, see {@link #getYComponent()}
@@ -137,20 +143,17 @@ public class Velocity
 	public void setYComponent(float yvel)
 	{
 		this.yvel = yvel;
-		
-		speed = (float) Math.sqrt(xvel * xvel + yvel * yvel);
-		direction = (float) Math.toDegrees(Math.atan2(yvel, xvel));
-		if(direction < 0) direction += 360;
+		polarValid = false;
 	}
 	
 	public void accelerate(float amt)
 	{
-		setSpeed(speed + amt);
+		setSpeed(getSpeed() + amt);
 	}
 	
 	public void turn(float amt)
 	{
-		setDirection(direction + amt);
+		setDirection(getDirection() + amt);
 	}
 	
 	public void accelerateX(float amt)
@@ -169,6 +172,26 @@ public class Velocity
 		accelerateY(gravity.getYComponent());
 	}
 	
+	/** Writes this velocity exactly, so that it can be restored with {@link #readState(StateBuffer)} */
+	public void writeState(StateBuffer state)
+	{
+		state.writeBoolean(polarValid);
+		state.writeFloat(speed);
+		state.writeFloat(direction);
+		state.writeFloat(xvel);
+		state.writeFloat(yvel);
+	}
+	
+	/** Restores this velocity from what {@link #writeState(StateBuffer)} wrote */
+	public void readState(StateBuffer state)
+	{
+		polarValid = state.readBoolean();
+		speed = state.readFloat();
+		direction = state.readFloat();
+		xvel = state.readFloat();
+		yvel = state.readFloat();
+	}
+	
 	public static Velocity unmodifiableVelocity(Velocity vel)
 	{
 		return new UnmodifiableVelocity(vel);
@@ -179,7 +202,44 @@ public class Velocity
 		return createFromSpeedAndDirection(vel.getSpeed(), vel.getDirection());
 	}
 	
-	private float directionInBounds(float direction)
+	private void updatePolar()
+	{
+		if(!polarValid)
+		{
+			speed = speedOf(xvel, yvel);
+			direction = directionOf(xvel, yvel);
+			polarValid = true;
+		}
+	}
+	
+	/** Returns the speed of a velocity with the given components */
+	public static float speedOf(float xvel, float yvel)
+	{
+		return (float) Math.sqrt(xvel * xvel + yvel * yvel);
+	}
+	
+	/** Returns the direction of a velocity with the given components, see {@link #getDirection()} */
+	public static float directionOf(float xvel, float yvel)
+	{
+		float direction = (float) Math.toDegrees(Math.atan2(yvel, xvel));
+		if(direction < 0) direction += 360;
+		return direction;
+	}
+	
+	/** Returns the horizontal component of a velocity with the given speed and direction */
+	public static float xComponentOf(float speed, float direction)
+	{
+		return (float) (speed * Math.cos(Math.toRadians(direction)));
+	}
+	
+	/** Returns the vertical component of a velocity with the given speed and direction */
+	public static float yComponentOf(float speed, float direction)
+	{
+		return (float) (speed * Math.sin(Math.toRadians(direction)));
+	}
+	
+	/** Returns the given direction moved into the range 0, inclusive, to 360, exclusive */
+	public static float directionInBounds(float direction)
 	{
 		while(direction >= 360)
 			direction -= 360;
@@ -230,5 +290,11 @@ public class Velocity
 				throw new UnsupportedOperationException("Cannot set the y-component of an unmodifiable velocity");
 			else super.setYComponent(yvel);
 		}
+		
+		@Override
+		public void readState(StateBuffer state)
+		{
+			throw new UnsupportedOperationException("Cannot restore an unmodifiable velocity");
+		}
 	}
 }
@@ -0,0 +1,54 @@
+package net.earthcomputer.stepfish.geom.collision;
+
+import java.util.Arrays;
+
+/**
+ * A reusable list of axis-aligned boxes, stored in a flat array of doubles so
+ * that gathering them doesn't allocate once the list has grown large enough.
+ *
+ * @author Earthcomputer
+ */
+public class BoxList {
+
+	private double[] boxes = new double[4 * 16];
+	private int size;
+
+	/** Adds a box with the given bounds */
+	public void add(double minX, double minY, double maxX, double maxY) {
+		int index = size * 4;
+		if (index == boxes.length) {
+			boxes = Arrays.copyOf(boxes, boxes.length * 2);
+		}
+		boxes[index] = minX;
+		boxes[index + 1] = minY;
+		boxes[index + 2] = maxX;
+		boxes[index + 3] = maxY;
+		size++;
+	}
+
+	/** Removes all boxes, keeping the storage for reuse */
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double getMinX(int index) {
+		return boxes[index * 4];
+	}
+
+	public double getMinY(int index) {
+		return boxes[index * 4 + 1];
+	}
+
+	public double getMaxX(int index) {
+		return boxes[index * 4 + 2];
+	}
+
+	public double getMaxY(int index) {
+		return boxes[index * 4 + 3];
+	}
+
+}
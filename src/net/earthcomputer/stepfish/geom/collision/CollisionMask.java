@@ -1,10 +1,15 @@
 package net.earthcomputer.stepfish.geom.collision;
 
 import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 
 import net.earthcomputer.stepfish.geom.Pos;
 
 /** Represents a collision mask.
+ * 
+ * The global bounding box of the mask is kept in fields, and the intersection tests between the different types of
+ * mask are done analytically, so that collision checks don't need to allocate.
  * 
  * @author Earthcomputer */
 public abstract class CollisionMask<S extends Shape>
@@ -12,13 +17,26 @@ public abstract class CollisionMask<S extends Shape>
 	
 	protected S localShape;
 	protected S globalShape;
-	protected Pos globalPos;
+	protected double globalX;
+	protected double globalY;
+	
+	/** The bounding box of the local shape */
+	private double localMinX;
+	private double localMinY;
+	private double localMaxX;
+	private double localMaxY;
+	
+	/** The bounding box of the global shape */
+	protected double minX;
+	protected double minY;
+	protected double maxX;
+	protected double maxY;
 	
 	public CollisionMask(S shape)
 	{
 		this.localShape = copy(shape);
 		this.globalShape = copy(shape);
-		this.globalPos = new Pos(0, 0);
+		updateLocalBounds();
 	}
 	
 	public S getGlobalShape()
@@ -28,9 +46,15 @@ public abstract class CollisionMask<S extends Shape>
 	
 	public void setGlobalPos(Pos pos)
 	{
-		this.globalShape = translate(this.globalShape, pos.getX() - this.globalPos.getX(),
-			pos.getY() - this.globalPos.getY());
-		this.globalPos = Pos.copyOf(pos);
+		setGlobalPos(pos.getX(), pos.getY());
+	}
+	
+	public void setGlobalPos(double x, double y)
+	{
+		this.globalShape = translate(this.globalShape, x - this.globalX, y - this.globalY);
+		this.globalX = x;
+		this.globalY = y;
+		updateGlobalBounds();
 	}
 	
 	public S getLocalShape()
@@ -42,9 +66,118 @@ public abstract class CollisionMask<S extends Shape>
 	{
 		this.localShape = copy(shape);
 		this.globalShape = copy(shape);
-		this.globalShape = translate(this.globalShape, this.globalPos.getX(), this.globalPos.getY());
+		this.globalShape = translate(this.globalShape, this.globalX, this.globalY);
+		updateLocalBounds();
+	}
+	
+	private void updateLocalBounds()
+	{
+		Rectangle2D bounds = localShape.getBounds2D();
+		localMinX = bounds.getMinX();
+		localMinY = bounds.getMinY();
+		localMaxX = bounds.getMaxX();
+		localMaxY = bounds.getMaxY();
+		updateGlobalBounds();
+		onLocalShapeChanged();
+	}
+	
+	/** Called when the local shape changes, including from the constructor, to let subclasses update anything they
+	 * calculate from the local shape. Subclass fields are not initialized when this is called from the constructor */
+	protected void onLocalShapeChanged()
+	{
+	}
+	
+	private void updateGlobalBounds()
+	{
+		minX = globalX + localMinX;
+		minY = globalY + localMinY;
+		maxX = globalX + localMaxX;
+		maxY = globalY + localMaxY;
+	}
+	
+	public double getMinX()
+	{
+		return minX;
+	}
+	
+	public double getMinY()
+	{
+		return minY;
+	}
+	
+	public double getMaxX()
+	{
+		return maxX;
+	}
+	
+	public double getMaxY()
+	{
+		return maxY;
+	}
+	
+	/** Returns whether the global bounding box of this mask overlaps the given rectangle. Rectangles which are only
+	 * touching don't overlap */
+	public boolean boundsIntersect(double x, double y, double width, double height)
+	{
+		return width > 0 && height > 0 && maxX > minX && maxY > minY && x + width > minX && y + height > minY
+			&& x < maxX && y < maxY;
+	}
+	
+	/** Returns whether the global shape of this mask intersects the given rectangle */
+	public abstract boolean intersects(double x, double y, double width, double height);
+	
+	/** Returns whether the global shape of this mask contains the given point */
+	public boolean contains(double x, double y)
+	{
+		return globalShape.contains(x, y);
+	}
+	
+	/** Returns whether the global shape of this mask intersects the global shape of the other mask */
+	public boolean intersects(CollisionMask<?> other)
+	{
+		if(!boundsIntersect(other.minX, other.minY, other.maxX - other.minX, other.maxY - other.minY)) return false;
+		if(other instanceof MaskRectangle)
+		{
+			return intersects(other.minX, other.minY, other.maxX - other.minX, other.maxY - other.minY);
+		}
+		if(this instanceof MaskRectangle)
+		{
+			return other.intersects(minX, minY, maxX - minX, maxY - minY);
+		}
+		Boolean result = intersectsNonRectangle(other);
+		if(result == null) result = other.intersectsNonRectangle(this);
+		if(result == null) result = intersectsExactly(other.globalShape);
+		return result;
 	}
 	
+	/** Returns whether the global shape of this mask intersects the given shape */
+	public boolean intersects(Shape other)
+	{
+		if(other instanceof Rectangle2D)
+		{
+			Rectangle2D rect = (Rectangle2D) other;
+			return intersects(rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight());
+		}
+		if(this instanceof MaskRectangle)
+		{
+			return other.intersects(minX, minY, maxX - minX, maxY - minY);
+		}
+		return intersectsExactly(other);
+	}
+	
+	/** Returns whether the global shape of this mask intersects the given shape, using {@link Area}s. This is exact
+	 * for any shapes, but slow and allocates */
+	public boolean intersectsExactly(Shape other)
+	{
+		Area area = new Area(globalShape);
+		area.intersect(new Area(other));
+		return !area.isEmpty();
+	}
+	
+	/** Tests for intersection with another mask, where neither mask is a rectangle. Returns null if this mask doesn't
+	 * know how to test against the other type of mask */
+	protected abstract Boolean intersectsNonRectangle(CollisionMask<?> other);
+	
 	/** Translates the given shape. Depending on the shape's functionality, this method may modify the original shape or
 	 * create a new one.
 	 * @param shape
@@ -23,6 +23,31 @@ public class MaskEllipse extends CollisionMask<Ellipse2D>
 		super(ellipse);
 	}
 	
+	@Override
+	public boolean intersects(double x, double y, double width, double height)
+	{
+		return boundsIntersect(x, y, width, height) && globalShape.intersects(x, y, width, height);
+	}
+	
+	@Override
+	protected Boolean intersectsNonRectangle(CollisionMask<?> other)
+	{
+		if(other instanceof MaskEllipse && isCircle() && ((MaskEllipse) other).isCircle())
+		{
+			double radius = (maxX - minX) / 2, otherRadius = (other.maxX - other.minX) / 2;
+			double dx = (other.minX + otherRadius) - (minX + radius);
+			double dy = (other.minY + otherRadius) - (minY + radius);
+			return dx * dx + dy * dy < (radius + otherRadius) * (radius + otherRadius);
+		}
+		// Polygons know how to test against ellipses, intersections between non-circular ellipses aren't analytic
+		return null;
+	}
+	
+	private boolean isCircle()
+	{
+		return maxX - minX == maxY - minY;
+	}
+	
 	@Override
 	protected Ellipse2D translate(Ellipse2D shape, double x, double y)
 	{
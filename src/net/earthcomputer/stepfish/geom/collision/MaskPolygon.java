@@ -3,11 +3,22 @@ package net.earthcomputer.stepfish.geom.collision;
 import java.awt.Polygon;
 
 /** An implementation of a collision mask in the shape of a polygon
+ * 
+ * Convex polygons are tested for intersection using the separating axis theorem, other polygons fall back to the
+ * slower tests in {@link Polygon}
  * 
  * @author Earthcomputer */
 public class MaskPolygon extends CollisionMask<Polygon>
 {
 	
+	private boolean convex;
+	/** The normal of each edge of the local shape, not normalized */
+	private double[] normalsX;
+	private double[] normalsY;
+	/** The projection of the local shape onto each normal */
+	private double[] localProjectionsMin;
+	private double[] localProjectionsMax;
+	
 	public MaskPolygon(int[] xpoints, int[] ypoints, int npoints)
 	{
 		this(new Polygon(xpoints, ypoints, npoints));
@@ -18,6 +29,137 @@ public class MaskPolygon extends CollisionMask<Polygon>
 		super(polygon);
 	}
 	
+	@Override
+	protected void onLocalShapeChanged()
+	{
+		int n = localShape.npoints;
+		int[] xs = localShape.xpoints, ys = localShape.ypoints;
+		
+		// A polygon is convex if all its corners turn the same way
+		boolean turnsLeft = false, turnsRight = false;
+		for(int i = 0; i < n; i++)
+		{
+			int j = (i + 1) % n, k = (i + 2) % n;
+			long cross = (long) (xs[j] - xs[i]) * (ys[k] - ys[j]) - (long) (ys[j] - ys[i]) * (xs[k] - xs[j]);
+			if(cross > 0) turnsLeft = true;
+			else if(cross < 0) turnsRight = true;
+		}
+		convex = n >= 3 && turnsLeft != turnsRight;
+		
+		normalsX = new double[n];
+		normalsY = new double[n];
+		localProjectionsMin = new double[n];
+		localProjectionsMax = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			int j = (i + 1) % n;
+			normalsX[i] = -(ys[j] - ys[i]);
+			normalsY[i] = xs[j] - xs[i];
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for(int k = 0; k < n; k++)
+			{
+				double projection = normalsX[i] * xs[k] + normalsY[i] * ys[k];
+				min = Math.min(min, projection);
+				max = Math.max(max, projection);
+			}
+			localProjectionsMin[i] = min;
+			localProjectionsMax[i] = max;
+		}
+	}
+	
+	@Override
+	public boolean intersects(double x, double y, double width, double height)
+	{
+		if(!boundsIntersect(x, y, width, height)) return false;
+		if(!convex) return globalShape.intersects(x, y, width, height);
+		
+		// The bounding box check covers the axes of the rectangle, so only the polygon's axes are left
+		double centerX = x + width / 2, centerY = y + height / 2;
+		for(int i = 0; i < normalsX.length; i++)
+		{
+			double nx = normalsX[i], ny = normalsY[i];
+			double offset = nx * globalX + ny * globalY;
+			double rectCenter = nx * centerX + ny * centerY;
+			double rectRadius = Math.abs(nx) * width / 2 + Math.abs(ny) * height / 2;
+			if(localProjectionsMax[i] + offset <= rectCenter - rectRadius
+				|| rectCenter + rectRadius <= localProjectionsMin[i] + offset)
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	protected Boolean intersectsNonRectangle(CollisionMask<?> other)
+	{
+		if(!convex) return null;
+		if(other instanceof MaskPolygon)
+		{
+			MaskPolygon otherPolygon = (MaskPolygon) other;
+			if(!otherPolygon.convex) return null;
+			return !hasSeparatingAxis(otherPolygon) && !otherPolygon.hasSeparatingAxis(this);
+		}
+		if(other instanceof MaskEllipse)
+		{
+			return intersectsEllipse(other.minX, other.minY, other.maxX, other.maxY);
+		}
+		return null;
+	}
+	
+	/** Returns whether one of the edges of this polygon separates it from the other polygon */
+	private boolean hasSeparatingAxis(MaskPolygon other)
+	{
+		int[] xs = other.localShape.xpoints, ys = other.localShape.ypoints;
+		for(int i = 0; i < normalsX.length; i++)
+		{
+			double nx = normalsX[i], ny = normalsY[i];
+			double offset = nx * globalX + ny * globalY;
+			double otherOffset = nx * other.globalX + ny * other.globalY;
+			double otherMin = Double.POSITIVE_INFINITY, otherMax = Double.NEGATIVE_INFINITY;
+			for(int k = 0; k < other.localShape.npoints; k++)
+			{
+				double projection = nx * xs[k] + ny * ys[k] + otherOffset;
+				otherMin = Math.min(otherMin, projection);
+				otherMax = Math.max(otherMax, projection);
+			}
+			if(localProjectionsMax[i] + offset <= otherMin || otherMax <= localProjectionsMin[i] + offset)
+				return true;
+		}
+		return false;
+	}
+	
+	/** Tests for intersection with the ellipse with the given bounds, by scaling space so that the ellipse becomes the
+	 * unit circle */
+	private boolean intersectsEllipse(double ellipseMinX, double ellipseMinY, double ellipseMaxX, double ellipseMaxY)
+	{
+		double radiusX = (ellipseMaxX - ellipseMinX) / 2, radiusY = (ellipseMaxY - ellipseMinY) / 2;
+		if(radiusX <= 0 || radiusY <= 0) return false;
+		double centerX = ellipseMinX + radiusX, centerY = ellipseMinY + radiusY;
+		
+		int n = localShape.npoints;
+		int[] xs = localShape.xpoints, ys = localShape.ypoints;
+		boolean allLeft = true, allRight = true;
+		for(int i = 0; i < n; i++)
+		{
+			int j = (i + 1) % n;
+			double x0 = (xs[i] + globalX - centerX) / radiusX, y0 = (ys[i] + globalY - centerY) / radiusY;
+			double x1 = (xs[j] + globalX - centerX) / radiusX, y1 = (ys[j] + globalY - centerY) / radiusY;
+			double dx = x1 - x0, dy = y1 - y0;
+			
+			// Closest point on this edge to the center of the circle
+			double lengthSq = dx * dx + dy * dy;
+			double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, -(x0 * dx + y0 * dy) / lengthSq));
+			double closestX = x0 + t * dx, closestY = y0 + t * dy;
+			if(closestX * closestX + closestY * closestY < 1) return true;
+			
+			// Which side of this edge the center is on
+			double cross = dx * -y0 - dy * -x0;
+			if(cross < 0) allLeft = false;
+			if(cross > 0) allRight = false;
+		}
+		// No edge is close enough, so they only intersect if the circle is inside the polygon
+		return allLeft || allRight;
+	}
+	
 	@Override
 	protected Polygon translate(Polygon shape, double x, double y)
 	{
@@ -24,6 +24,19 @@ public class MaskRectangle extends CollisionMask<Rectangle2D>
 		super(rect);
 	}
 	
+	@Override
+	public boolean intersects(double x, double y, double width, double height)
+	{
+		// The bounding box is the rectangle
+		return boundsIntersect(x, y, width, height);
+	}
+	
+	@Override
+	protected Boolean intersectsNonRectangle(CollisionMask<?> other)
+	{
+		throw new AssertionError("A rectangle mask can't be a non-rectangle");
+	}
+	
 	@Override
 	protected Rectangle2D translate(Rectangle2D shape, double x, double y)
 	{
@@ -1,22 +1,33 @@
 package net.earthcomputer.stepfish.geom.collision;
 
-import java.awt.Shape;
-
-import net.earthcomputer.stepfish.Stepfish;
-import net.earthcomputer.stepfish.MainWindow;
-import net.earthcomputer.stepfish.geom.Pos;
 import net.earthcomputer.stepfish.object.GameObject;
 import net.earthcomputer.stepfish.object.PhysicsObject;
 import net.earthcomputer.stepfish.util.InstanceOfPredicate;
 import net.earthcomputer.stepfish.util.Predicate;
 
+/** Moves objects which have moved into solids back into contact with them, by sweeping the object's bounding box along
+ * its motion and finding the time of impact with the nearby solids
+ * 
+ * @author Earthcomputer */
 public class MoveToContactHelper
 {
 	
-	private final MainWindow window;
+	private static final int AXIS_NONE = 0;
+	private static final int AXIS_X = 1;
+	private static final int AXIS_Y = 2;
+	private static final double EPSILON = 1e-6;
+	
 	private final PhysicsObject theObject;
 	private final Predicate<GameObject> collisionPredicate;
 	
+	/** The bounding boxes of the solids near the object, reused between ticks */
+	private final BoxList solids = new BoxList();
+	/** The bounding box of the object as it is being moved */
+	private double boxX, boxY, width, height;
+	/** Which axis and edge the last sweep hit */
+	private int hitAxis;
+	private double hitEdge;
+	
 	public MoveToContactHelper(PhysicsObject object, Class<? extends GameObject> collision)
 	{
 		this(object, new InstanceOfPredicate<GameObject>(collision));
@@ -24,120 +35,70 @@ public class MoveToContactHelper
 	
 	public MoveToContactHelper(PhysicsObject object, Predicate<GameObject> collisionPredicate)
 	{
-		window = Stepfish.getInstance().getWindow();
 		theObject = object;
 		this.collisionPredicate = collisionPredicate;
 	}
 	
-	public <T extends Shape> void moveToContact()
+	/** Moves the object back along its motion since the previous tick until it is in contact with the solids it moved
+	 * into, and then slides it along them for the rest of its motion. Both the object and the solids are treated as
+	 * their collision mask's bounding box */
+	public void moveToContact()
 	{
-		/** The position we're moving to contact from */
-		Pos prevPos = theObject.getPreviousPos();
-		/** The position the object first collided with a wall */
-		Pos pos = theObject.getPos();
-		/** How the object has moved since the previous tick */
-		double dx = pos.getX() - prevPos.getX();
-		double dy = pos.getY() - prevPos.getY();
-		/** The absolute distance in each direction the object has moved */
-		double absDX = Math.abs(dx);
-		double absDY = Math.abs(dy);
-		/** The amount to move the object in each step in each direction */
-		double movingX, movingY;
-		/** The maximum amount of steps to take, acts as a safety net in case no collision is found */
-		double amtToMove;
+		double prevX = theObject.getPreviousX(), prevY = theObject.getPreviousY();
+		// How the object has moved since the previous tick
+		double dx = theObject.getX() - prevX;
+		double dy = theObject.getY() - prevY;
 		
-		if(absDX < absDY)
-		{
-			// We're moving mostly vertically, movingX is the fractional variable
-			amtToMove = absDY;
-			movingX = dx / absDY;
-			movingY = Math.signum(dy);
-		}
-		else
-		{
-			// We're moving mostly horizontally, movingY is the fractional variable
-			amtToMove = absDX;
-			movingY = dy / absDX;
-			movingX = Math.signum(dx);
-		}
+		// The bounding box of the object's collision mask at the previous position
+		CollisionMask<?> mask = theObject.getCollisionMask();
+		double startX = mask.getMinX() - dx, startY = mask.getMinY() - dy;
+		width = mask.getMaxX() - mask.getMinX();
+		height = mask.getMaxY() - mask.getMinY();
 		
-		@SuppressWarnings("unchecked")
-		/** The object's collision mask, used to make transformations etc. */
-		CollisionMask<T> mask = (CollisionMask<T>) theObject.getCollisionMask();
-		/** A base collision shape from before any steps */
-		T shapeStart = mask.translate(mask.getGlobalShape(), -dx, -dy);
-		/** A shape to test collision with */
-		T shapeTesting = null;
-		/** The starting position */
-		double xStart = prevPos.getX(), yStart = prevPos.getY();
-		/** The number of steps taken in each direction */
-		int stepsX = 0, stepsY = 0;
+		// Gather everything the object could hit in a single query over the swept area
+		solids.clear();
+		theObject.getWorld().getCollisionBoundsInArea(Math.min(startX, startX + dx), Math.min(startY, startY + dy),
+			Math.max(startX, startX + dx) + width, Math.max(startY, startY + dy) + height, collisionPredicate, solids);
+		
+		boxX = startX;
+		boxY = startY;
 		/** Whether stopped moving in a particular direction because of a collision */
 		boolean hitHorizontally = false, hitVertically = false;
 		
-		for(int step = 0; step < amtToMove; step++)
-		{
-			// Try move diagonally
-			if(!hitHorizontally && !hitVertically)
-			{
-				shapeTesting = mask.translate(mask.copy(shapeStart), (stepsX + 1) * movingX, (stepsY + 1) * movingY);
-				if(!window.isShapeCollidedWith(shapeTesting, collisionPredicate))
-				{
-					// Successfully moved diagonally
-					stepsX++;
-					stepsY++;
-					continue;
-				}
-			}
-			
-			// Try move vertically
-			if(!hitVertically)
-			{
-				shapeTesting = mask.translate(mask.copy(shapeStart), stepsX * movingX, (stepsY + 1) * movingY);
-				if(!hitVertically && !window.isShapeCollidedWith(shapeTesting, collisionPredicate))
-				{
-					// Successfully moved vertically
-					stepsY++;
-					hitHorizontally = true;
-					continue;
-				}
-			}
-			
-			// Try move horizontally
-			if(!hitHorizontally)
-			{
-				shapeTesting = mask.translate(mask.copy(shapeStart), (stepsX + 1) * movingX, stepsY * movingY);
-				
-				if(!hitHorizontally && !window.isShapeCollidedWith(shapeTesting, collisionPredicate))
-				{
-					// Successfully moved horizontally
-					stepsX++;
-					hitVertically = true;
-					continue;
-				}
-			}
-			
-			// Couldn't move anywhere
-			hitHorizontally = true;
-			hitVertically = true;
-			break;
-		}
-		
-		// Correction
-		if(!hitHorizontally && !hitVertically)
+		// Try move diagonally
+		double time = sweep(dx, dy);
+		if(time >= 1)
 		{
 			// If we haven't hit anything, then there's no point doing anything
 			return;
 		}
+		moveToTime(dx, dy, time);
+		double remainingDX = dx * (1 - time), remainingDY = dy * (1 - time);
 		
-		/** Destination positions */
-		double destX = xStart + stepsX * movingX;
-		double destY = yStart + stepsY * movingY;
+		// Try move vertically
+		time = sweep(0, remainingDY);
+		if(time > 0)
+		{
+			// Successfully moved vertically
+			hitHorizontally = true;
+			moveToTime(0, remainingDY, time);
+			if(time < 1) hitVertically = true;
+		}
+		else
+		{
+			// Try move horizontally
+			hitVertically = true;
+			time = sweep(remainingDX, 0);
+			moveToTime(remainingDX, 0, time);
+			if(time < 1) hitHorizontally = true;
+		}
 		
+		// Correction
 		if(hitHorizontally)
 		{
 			// Align to grid horizontally
-			destX = movingX > 0 ? Math.ceil(destX) : Math.floor(destX);
+			double destX = snapToInteger(prevX + boxX - startX);
+			destX = dx > 0 ? Math.ceil(destX) : Math.floor(destX);
 			// Update the object's x-position accordingly
 			theObject.setX(destX);
 			// Stop when hit
@@ -147,7 +108,8 @@ public class MoveToContactHelper
 		if(hitVertically)
 		{
 			// Align to grid vertically
-			destY = movingY > 0 ? Math.ceil(destY) : Math.floor(destY);
+			double destY = snapToInteger(prevY + boxY - startY);
+			destY = dy > 0 ? Math.ceil(destY) : Math.floor(destY);
 			// Update the object's y-position accordingly
 			theObject.setY(destY);
 			// Stop when hit
@@ -155,4 +117,100 @@ public class MoveToContactHelper
 		}
 	}
 	
+	/** Finds the fraction of the given motion the box can make before it overlaps any of the solids, or 1 if it
+	 * doesn't hit anything. Boxes which are only touching don't overlap. Remembers which edge was hit, so that
+	 * {@link #moveToTime(double, double, double)} can line up with it exactly */
+	private double sweep(double motionX, double motionY)
+	{
+		double firstTime = 1;
+		hitAxis = AXIS_NONE;
+		for(int i = 0, e = solids.size(); i < e; i++)
+		{
+			double solidMinX = solids.getMinX(i), solidMinY = solids.getMinY(i);
+			double solidMaxX = solids.getMaxX(i), solidMaxY = solids.getMaxY(i);
+			
+			// The times at which the box starts and stops overlapping the solid along each axis
+			double entryX, exitX, entryY, exitY;
+			if(motionX == 0)
+			{
+				if(boxX + width <= solidMinX || boxX >= solidMaxX) continue;
+				entryX = Double.NEGATIVE_INFINITY;
+				exitX = Double.POSITIVE_INFINITY;
+			}
+			else if(motionX > 0)
+			{
+				entryX = (solidMinX - (boxX + width)) / motionX;
+				exitX = (solidMaxX - boxX) / motionX;
+			}
+			else
+			{
+				entryX = (solidMaxX - boxX) / motionX;
+				exitX = (solidMinX - (boxX + width)) / motionX;
+			}
+			if(motionY == 0)
+			{
+				if(boxY + height <= solidMinY || boxY >= solidMaxY) continue;
+				entryY = Double.NEGATIVE_INFINITY;
+				exitY = Double.POSITIVE_INFINITY;
+			}
+			else if(motionY > 0)
+			{
+				entryY = (solidMinY - (boxY + height)) / motionY;
+				exitY = (solidMaxY - boxY) / motionY;
+			}
+			else
+			{
+				entryY = (solidMaxY - boxY) / motionY;
+				exitY = (solidMinY - (boxY + height)) / motionY;
+			}
+			
+			double entry = Math.max(entryX, entryY);
+			double exit = Math.min(exitX, exitY);
+			if(entry >= exit || exit <= 0 || entry >= firstTime) continue;
+			
+			if(entry < 0)
+			{
+				// Already overlapping, so can't move at all
+				firstTime = 0;
+				hitAxis = AXIS_NONE;
+			}
+			else
+			{
+				firstTime = entry;
+				// Hitting a corner exactly counts as hitting the side, like sliding past it vertically would
+				if(entryX >= entryY)
+				{
+					hitAxis = AXIS_X;
+					hitEdge = motionX > 0 ? solidMinX - width : solidMaxX;
+				}
+				else
+				{
+					hitAxis = AXIS_Y;
+					hitEdge = motionY > 0 ? solidMinY - height : solidMaxY;
+				}
+			}
+		}
+		return firstTime;
+	}
+	
+	/** Moves the box by the given fraction of the given motion, and lines it up with the edge it hit in the last
+	 * {@link #sweep(double, double)} */
+	private void moveToTime(double motionX, double motionY, double time)
+	{
+		boxX += motionX * time;
+		boxY += motionY * time;
+		if(time < 1)
+		{
+			if(hitAxis == AXIS_X) boxX = hitEdge;
+			else if(hitAxis == AXIS_Y) boxY = hitEdge;
+		}
+	}
+	
+	/** Rounds values which are within rounding error of an integer, so aligning them to the grid doesn't overshoot */
+	private static double snapToInteger(double value)
+	{
+		double rounded = Math.rint(value);
+		return Math.abs(value - rounded) < EPSILON ? rounded : value;
+	}
+	
 }
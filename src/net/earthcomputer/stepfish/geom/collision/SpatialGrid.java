@@ -0,0 +1,332 @@
+package net.earthcomputer.stepfish.geom.collision;
+
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.earthcomputer.stepfish.object.GameObject;
+import net.earthcomputer.stepfish.util.Predicate;
+
+/**
+ * A uniform grid broadphase over the collision masks of game objects. Each
+ * object is registered in every cell its collision mask's bounding box
+ * touches, so a query only has to look at the objects in the cells overlapping
+ * the queried area.
+ *
+ * Cell bounds are treated as closed intervals, so two bounding boxes which are
+ * merely touching always share at least one cell. The grid is sparse, so it
+ * doesn't depend on the size of the level.
+ *
+ * Queries never modify the grid, so they may be run concurrently with each
+ * other, but not with modifications.
+ *
+ * @author Earthcomputer
+ */
+public class SpatialGrid {
+
+	/** The size of each cell, matching the tile grid of levels */
+	public static final int CELL_SIZE = 16;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * Concurrent so that objects being constructed on other threads can safely
+	 * find out that they are not in the grid yet
+	 */
+	private final Map<GameObject, Entry> entries;
+
+	/** Open-addressed hash table from packed cell co-ordinates to cells */
+	private long[] cellKeys;
+	private Cell[] cells;
+	private int cellCount;
+
+	public SpatialGrid() {
+		entries = new ConcurrentHashMap<GameObject, Entry>();
+		clear();
+	}
+
+	/**
+	 * Creates a grid with room for the given number of objects, assuming
+	 * they're mostly in different cells
+	 */
+	public SpatialGrid(int expectedObjects) {
+		entries = new ConcurrentHashMap<GameObject, Entry>(expectedObjects);
+		int capacity = INITIAL_CAPACITY;
+		// Keep the table at most half full, as it would be after rehashing
+		while (capacity < expectedObjects * 2) {
+			capacity *= 2;
+		}
+		cellKeys = new long[capacity];
+		cells = new Cell[capacity];
+	}
+
+	/** Adds an object to the grid */
+	public void add(GameObject object) {
+		if (entries.containsKey(object))
+			return;
+		Entry entry = new Entry(object);
+		entries.put(object, entry);
+		if (computeCells(entry)) {
+			insert(entry);
+		}
+	}
+
+	/** Removes an object from the grid */
+	public void remove(GameObject object) {
+		Entry entry = entries.remove(object);
+		if (entry != null && entry.inCells) {
+			erase(entry, entry.minCellX, entry.minCellY, entry.maxCellX, entry.maxCellY);
+		}
+	}
+
+	/**
+	 * Updates the cells an object occupies after its position or collision mask
+	 * has changed. Does nothing if the object isn't in the grid
+	 */
+	public void update(GameObject object) {
+		Entry entry = entries.get(object);
+		if (entry == null)
+			return;
+
+		int oldMinX = entry.minCellX, oldMinY = entry.minCellY, oldMaxX = entry.maxCellX, oldMaxY = entry.maxCellY;
+		boolean wasInCells = entry.inCells;
+		boolean inCells = computeCells(entry);
+		if (wasInCells && inCells && oldMinX == entry.minCellX && oldMinY == entry.minCellY
+				&& oldMaxX == entry.maxCellX && oldMaxY == entry.maxCellY) {
+			// Still in the same cells
+			return;
+		}
+
+		if (wasInCells) {
+			erase(entry, oldMinX, oldMinY, oldMaxX, oldMaxY);
+		}
+		if (inCells) {
+			insert(entry);
+		}
+	}
+
+	/** Removes all objects from the grid */
+	public void clear() {
+		entries.clear();
+		cellKeys = new long[INITIAL_CAPACITY];
+		cells = new Cell[INITIAL_CAPACITY];
+		cellCount = 0;
+	}
+
+	/**
+	 * Adds all objects matching the given filter which collide with the given
+	 * object to the result list. Each object is added at most once
+	 */
+	public void getObjectsThatCollideWith(GameObject object, Predicate<GameObject> filter, List<GameObject> result) {
+		CollisionMask<?> mask = object.getCollisionMask();
+		query(mask.getMinX(), mask.getMinY(), mask.getMaxX(), mask.getMaxY(), object, null, filter, result, false);
+	}
+
+	/**
+	 * Adds all objects matching the given filter which collide with the given
+	 * shape to the result list. Each object is added at most once
+	 */
+	public void getObjectsThatCollideWith(Shape shape, double minX, double minY, double maxX, double maxY,
+			Predicate<GameObject> filter, List<GameObject> result) {
+		query(minX, minY, maxX, maxY, null, shape, filter, result, false);
+	}
+
+	/**
+	 * Returns whether any object matching the given filter collides with the
+	 * given object
+	 */
+	public boolean isObjectCollidedWith(GameObject object, Predicate<GameObject> filter) {
+		CollisionMask<?> mask = object.getCollisionMask();
+		return query(mask.getMinX(), mask.getMinY(), mask.getMaxX(), mask.getMaxY(), object, null, filter, null, true);
+	}
+
+	/**
+	 * Returns whether any object matching the given filter collides with the
+	 * given shape, which has the given bounds
+	 */
+	public boolean isShapeCollidedWith(Shape shape, double minX, double minY, double maxX, double maxY,
+			Predicate<GameObject> filter) {
+		return query(minX, minY, maxX, maxY, null, shape, filter, null, true);
+	}
+
+	/**
+	 * Adds the collision mask bounds of all objects matching the given filter
+	 * whose bounds touch the given area to the result list
+	 */
+	public void getBoundsInArea(double minX, double minY, double maxX, double maxY, Predicate<GameObject> filter,
+			BoxList result) {
+		int queryMinX = toCell(minX), queryMinY = toCell(minY);
+		int queryMaxX = toCell(maxX), queryMaxY = toCell(maxY);
+
+		for (int cellY = queryMinY; cellY <= queryMaxY; cellY++) {
+			for (int cellX = queryMinX; cellX <= queryMaxX; cellX++) {
+				Cell cell = getCell(cellX, cellY);
+				if (cell == null)
+					continue;
+				for (int i = 0, e = cell.size(); i < e; i++) {
+					Entry entry = cell.get(i);
+					if (cellX != Math.max(entry.minCellX, queryMinX) || cellY != Math.max(entry.minCellY, queryMinY))
+						continue;
+					if (filter.apply(entry.object)) {
+						CollisionMask<?> mask = entry.object.getCollisionMask();
+						result.add(mask.getMinX(), mask.getMinY(), mask.getMaxX(), mask.getMaxY());
+					}
+				}
+			}
+		}
+	}
+
+	private boolean query(double minX, double minY, double maxX, double maxY, GameObject object, Shape shape,
+			Predicate<GameObject> filter, List<GameObject> result, boolean stopAtFirst) {
+		int queryMinX = toCell(minX), queryMinY = toCell(minY);
+		int queryMaxX = toCell(maxX), queryMaxY = toCell(maxY);
+
+		for (int cellY = queryMinY; cellY <= queryMaxY; cellY++) {
+			for (int cellX = queryMinX; cellX <= queryMaxX; cellX++) {
+				Cell cell = getCell(cellX, cellY);
+				if (cell == null)
+					continue;
+				for (int i = 0, e = cell.size(); i < e; i++) {
+					Entry entry = cell.get(i);
+					// Only consider each object in the first cell it shares
+					// with the query, so it isn't found twice
+					if (cellX != Math.max(entry.minCellX, queryMinX) || cellY != Math.max(entry.minCellY, queryMinY))
+						continue;
+					if (!filter.apply(entry.object))
+						continue;
+					boolean collided = object != null ? object.isCollidedWith(entry.object)
+							: entry.object.isCollidedWith(shape);
+					if (collided) {
+						if (stopAtFirst)
+							return true;
+						result.add(entry.object);
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean computeCells(Entry entry) {
+		GameObject object = entry.object;
+		if (!object.hasCollisionMask()) {
+			entry.inCells = false;
+			return false;
+		}
+		CollisionMask<?> mask = object.getCollisionMask();
+		entry.minCellX = toCell(mask.getMinX());
+		entry.minCellY = toCell(mask.getMinY());
+		entry.maxCellX = toCell(mask.getMaxX());
+		entry.maxCellY = toCell(mask.getMaxY());
+		entry.inCells = true;
+		return true;
+	}
+
+	private static int toCell(double coord) {
+		return (int) Math.floor(coord / CELL_SIZE);
+	}
+
+	private void insert(Entry entry) {
+		for (int cellY = entry.minCellY; cellY <= entry.maxCellY; cellY++) {
+			for (int cellX = entry.minCellX; cellX <= entry.maxCellX; cellX++) {
+				getOrCreateCell(cellX, cellY).add(entry);
+			}
+		}
+	}
+
+	private void erase(Entry entry, int minCellX, int minCellY, int maxCellX, int maxCellY) {
+		for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+			for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+				Cell cell = getCell(cellX, cellY);
+				if (cell != null) {
+					cell.remove(entry);
+				}
+			}
+		}
+	}
+
+	private static long packCell(int cellX, int cellY) {
+		return ((long) cellX << 32) | (cellY & 0xffffffffL);
+	}
+
+	private static int hash(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private Cell getCell(int cellX, int cellY) {
+		long key = packCell(cellX, cellY);
+		int mask = cells.length - 1;
+		for (int index = hash(key, mask);; index = (index + 1) & mask) {
+			Cell cell = cells[index];
+			if (cell == null || cellKeys[index] == key)
+				return cell;
+		}
+	}
+
+	private Cell getOrCreateCell(int cellX, int cellY) {
+		long key = packCell(cellX, cellY);
+		int mask = cells.length - 1;
+		int index = hash(key, mask);
+		for (;; index = (index + 1) & mask) {
+			Cell cell = cells[index];
+			if (cell == null)
+				break;
+			if (cellKeys[index] == key)
+				return cell;
+		}
+
+		Cell cell = new Cell();
+		cellKeys[index] = key;
+		cells[index] = cell;
+		// Empty cells are kept rather than removed, which keeps the probe
+		// sequences intact
+		if (++cellCount * 2 > cells.length) {
+			rehash();
+		}
+		return cell;
+	}
+
+	private void rehash() {
+		long[] oldKeys = cellKeys;
+		Cell[] oldCells = cells;
+		cellKeys = new long[oldKeys.length * 2];
+		cells = new Cell[oldCells.length * 2];
+		int mask = cells.length - 1;
+		for (int i = 0; i < oldCells.length; i++) {
+			if (oldCells[i] != null) {
+				int index = hash(oldKeys[i], mask);
+				while (cells[index] != null) {
+					index = (index + 1) & mask;
+				}
+				cellKeys[index] = oldKeys[i];
+				cells[index] = oldCells[i];
+			}
+		}
+	}
+
+	private static class Entry {
+		private final GameObject object;
+		private boolean inCells;
+		private int minCellX;
+		private int minCellY;
+		private int maxCellX;
+		private int maxCellY;
+
+		public Entry(GameObject object) {
+			this.object = object;
+		}
+	}
+
+	private static class Cell extends ArrayList<Entry> {
+		private static final long serialVersionUID = 3523426513745092934L;
+
+		public Cell() {
+			super(4);
+		}
+	}
+
+}
@@ -5,6 +5,7 @@ import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 
+import net.earthcomputer.stepfish.Stepfish;
 import net.earthcomputer.stepfish.util.Images;
 import net.earthcomputer.stepfish.util.Keyboard;
 import net.earthcomputer.stepfish.util.Profiles;
@@ -34,7 +35,9 @@ public class GuiMainMenu extends Gui
 			@Override
 			public void draw(int mouseX, int mouseY, Graphics g)
 			{
-				int halfExtraSize = (int) (Math.sin((double) frameCount / 4) * 5);
+				// A quarter of a radian a tick, whatever the frame rate
+				int halfExtraSize = (int) (Math.sin((double) frameCount * Stepfish.TICKRATE / (Stepfish.FRAMERATE * 4))
+					* 5);
 				g.drawImage(getImage(), getX() - halfExtraSize, getY() - halfExtraSize,
 					getWidth() + (halfExtraSize * 2), getHeight() + (halfExtraSize * 2), null);
 				if(isHovered(mouseX, mouseY))
@@ -3,12 +3,12 @@ package net.earthcomputer.stepfish.object;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 
-import net.earthcomputer.stepfish.IUpdateListener;
+import net.earthcomputer.stepfish.IParallelUpdateListener;
 import net.earthcomputer.stepfish.geom.collision.MaskRectangle;
 import net.earthcomputer.stepfish.util.Images;
-import net.earthcomputer.stepfish.util.SoundManager;
+import net.earthcomputer.stepfish.util.StateBuffer;
 
-public class ElementSwitcherObject extends GameObject implements IUpdateListener
+public class ElementSwitcherObject extends GameObject implements IParallelUpdateListener
 {
 	
 	private static final BufferedImage[] texture = new BufferedImage[4];
@@ -31,26 +31,46 @@ public class ElementSwitcherObject extends GameObject implements IUpdateListener
 	}
 	
 	@Override
-	public void draw(Graphics g)
+	public void draw(Graphics g, float partialTicks)
 	{
 		int x = (int) getX();
 		int y = (int) getY();
 		g.drawImage(texture[(ticksExisted / TICKS_PER_FRAME) % 4], x, y, null);
 	}
 	
+	@Override
+	public void writeState(StateBuffer state)
+	{
+		super.writeState(state);
+		state.writeInt(ticksExisted);
+	}
+	
+	@Override
+	public void readState(StateBuffer state)
+	{
+		super.readState(state);
+		ticksExisted = state.readInt();
+	}
+	
 	@Override
 	public void update()
 	{
 		ticksExisted++;
 		
-		if(window.isObjectCollidedWith(this, PlayerObject.class))
+		if(world.isObjectCollidedWith(this, PlayerObject.class))
 		{
-			SoundManager.playSound("element_switcher");
-			for(PlayerObject player : window.listObjects(PlayerObject.class))
-			{
-				player.setElement(player.getElement().nextElement());
-			}
-			window.removeObject(this);
+			world.playSound("element_switcher");
+			world.runEffect(new Runnable() {
+				@Override
+				public void run()
+				{
+					for(PlayerObject player : world.listObjects(PlayerObject.class))
+					{
+						player.setElement(player.getElement().nextElement());
+					}
+				}
+			});
+			world.removeObject(this);
 		}
 	}
 	
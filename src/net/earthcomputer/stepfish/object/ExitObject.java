@@ -3,12 +3,12 @@ package net.earthcomputer.stepfish.object;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 
-import net.earthcomputer.stepfish.IUpdateListener;
+import net.earthcomputer.stepfish.IParallelUpdateListener;
 import net.earthcomputer.stepfish.geom.collision.MaskEllipse;
 import net.earthcomputer.stepfish.util.Images;
-import net.earthcomputer.stepfish.util.SoundManager;
+import net.earthcomputer.stepfish.util.StateBuffer;
 
-public class ExitObject extends GameObject implements IUpdateListener
+public class ExitObject extends GameObject implements IParallelUpdateListener
 {
 	
 	private static final BufferedImage texture = Images.loadImage("object/exit");
@@ -23,19 +23,33 @@ public class ExitObject extends GameObject implements IUpdateListener
 	}
 	
 	@Override
-	public void draw(Graphics g)
+	public void draw(Graphics g, float partialTicks)
 	{
 		g.drawImage(texture, (int) getX(), (int) (getY() + 4 * Math.sin((double) ticksExisted / 7)), null);
 	}
 	
+	@Override
+	public void writeState(StateBuffer state)
+	{
+		super.writeState(state);
+		state.writeInt(ticksExisted);
+	}
+	
+	@Override
+	public void readState(StateBuffer state)
+	{
+		super.readState(state);
+		ticksExisted = state.readInt();
+	}
+	
 	@Override
 	public void update()
 	{
 		ticksExisted++;
-		if(window.isObjectCollidedWith(this, PlayerObject.class))
+		if(world.isObjectCollidedWith(this, PlayerObject.class))
 		{
-			SoundManager.playSound("exit");
-			window.completeLevel();
+			world.playSound("exit");
+			world.completeLevel();
 		}
 	}
 	
@@ -5,12 +5,13 @@ import java.awt.image.BufferedImage;
 import java.util.Iterator;
 import java.util.List;
 
-import net.earthcomputer.stepfish.IUpdateListener;
+import net.earthcomputer.stepfish.IParallelUpdateListener;
 import net.earthcomputer.stepfish.geom.collision.MaskRectangle;
 import net.earthcomputer.stepfish.util.Images;
 import net.earthcomputer.stepfish.util.Predicate;
+import net.earthcomputer.stepfish.util.StateBuffer;
 
-public class FlyingCrossObject extends GameObject implements IUpdateListener
+public class FlyingCrossObject extends GameObject implements IParallelUpdateListener
 {
 	private static final BufferedImage[] texture = new BufferedImage[2];
 	private static final int TICKS_PER_FRAME = 15;
@@ -49,13 +50,31 @@ public class FlyingCrossObject extends GameObject implements IUpdateListener
 	}
 	
 	@Override
-	public void draw(Graphics g)
+	public void draw(Graphics g, float partialTicks)
 	{
 		int x = (int) getX();
 		int y = (int) getY();
 		g.drawImage(texture[(ticksExisted / TICKS_PER_FRAME) % 2], x, y, null);
 	}
 	
+	@Override
+	public void writeState(StateBuffer state)
+	{
+		super.writeState(state);
+		state.writeInt(ticksExisted);
+		state.writeDouble(attackTargetY);
+		state.writeEnum(this.state);
+	}
+	
+	@Override
+	public void readState(StateBuffer state)
+	{
+		super.readState(state);
+		ticksExisted = state.readInt();
+		attackTargetY = state.readDouble();
+		this.state = state.readEnum(EnumState.class);
+	}
+	
 	@Override
 	public void update()
 	{
@@ -66,7 +85,7 @@ public class FlyingCrossObject extends GameObject implements IUpdateListener
 				if(getY() < attackTargetY)
 				{
 					setY(Math.min(getY() + MOVE_SPEED, attackTargetY));
-					if(window.isObjectCollidedWith(this, WALL_COLLISION))
+					if(world.isObjectCollidedWith(this, WALL_COLLISION))
 					{
 						state = EnumState.ATTACK_UP;
 					}
@@ -87,7 +106,7 @@ public class FlyingCrossObject extends GameObject implements IUpdateListener
 				}
 				break;
 			case MOVE:
-				List<PlayerObject> players = window.listObjects(PlayerObject.class);
+				List<PlayerObject> players = world.listObjects(PlayerObject.class);
 				PlayerObject targetPlayer = null;
 				double closestDistanceSquared = Double.MAX_VALUE;
 				for(PlayerObject player : players)
@@ -121,11 +140,11 @@ public class FlyingCrossObject extends GameObject implements IUpdateListener
 						{
 							setX(Math.max(getX() - MOVE_SPEED, targetPlayer.getX()));
 						}
-						if(window.isObjectCollidedWith(this, WALL_COLLISION))
+						if(world.isObjectCollidedWith(this, WALL_COLLISION))
 						{
 							int diff = getX() < prevX ? -1 : 1;
 							setX(prevX);
-							while(!window.isObjectCollidedWith(this, WALL_COLLISION))
+							while(!world.isObjectCollidedWith(this, WALL_COLLISION))
 							{
 								setX(getX() + diff);
 							}
@@ -137,10 +156,10 @@ public class FlyingCrossObject extends GameObject implements IUpdateListener
 				break;
 		}
 		
-		Iterator<PlayerObject> collidedPlayers = window.getObjectsThatCollideWith(this, PlayerObject.class).iterator();
+		Iterator<PlayerObject> collidedPlayers = world.getObjectsThatCollideWith(this, PlayerObject.class).iterator();
 		if(collidedPlayers.hasNext())
 		{
-			window.failLevel(collidedPlayers.next(), this);
+			world.failLevel(collidedPlayers.next(), this);
 		}
 	}
 	
@@ -2,14 +2,13 @@ package net.earthcomputer.stepfish.object;
 
 import java.awt.Graphics;
 import java.awt.Shape;
-import java.awt.geom.Area;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 
-import net.earthcomputer.stepfish.Stepfish;
-import net.earthcomputer.stepfish.MainWindow;
+import net.earthcomputer.stepfish.World;
 import net.earthcomputer.stepfish.geom.Pos;
 import net.earthcomputer.stepfish.geom.collision.CollisionMask;
+import net.earthcomputer.stepfish.util.StateBuffer;
 
 /** Represents all objects in the game
  * 
@@ -17,21 +16,32 @@ import net.earthcomputer.stepfish.geom.collision.CollisionMask;
 public abstract class GameObject
 {
 	
-	private Pos pos;
+	private double x;
+	private double y;
 	private CollisionMask<?> collisionMask;
-	private boolean canDoFastCollision;
 	private boolean fastCollision = true;
 	private int depth = 0;
 	
-	protected Stepfish githubGame;
-	protected MainWindow window;
+	/** The world this object is in, or null if it hasn't been added to a world */
+	protected World world;
 	
 	/** Constructs a game component with the given co-ordinates */
 	public GameObject(double x, double y)
 	{
-		this.pos = new Pos(x, y);
-		this.githubGame = Stepfish.getInstance();
-		this.window = githubGame.getWindow();
+		this.x = x;
+		this.y = y;
+	}
+	
+	/** Returns the world this object is in, or null if it hasn't been added to a world */
+	public World getWorld()
+	{
+		return world;
+	}
+	
+	/** Sets the world this object is in, called when it's added to the world */
+	public void setWorld(World world)
+	{
+		this.world = world;
 	}
 	
 	/** Called directly after being added to the level */
@@ -44,49 +54,71 @@ public abstract class GameObject
 	{
 	}
 	
-	/** Gets the unmodifiable position of this game component */
+	/** Gets a copy of the position of this game component, which can't be modified. Prefer {@link #getX()} and
+	 * {@link #getY()}, which don't allocate */
 	public Pos getPos()
 	{
-		return Pos.unmodifiablePos(pos);
+		return Pos.unmodifiablePos(new Pos(getX(), getY()));
 	}
 	
 	/** Gets the x-position of this component */
 	public double getX()
 	{
-		return pos.getX();
+		return x;
 	}
 	
 	/** Gets the y-position of this component */
 	public double getY()
 	{
-		return pos.getY();
+		return y;
 	}
 	
 	/** Sets the position of this component */
 	public void setPos(Pos pos)
 	{
-		this.pos = Pos.copyOf(pos);
-		if(collisionMask != null) collisionMask.setGlobalPos(pos);
+		setPos(pos.getX(), pos.getY());
+	}
+	
+	/** Sets the position of this component */
+	public void setPos(double xpos, double ypos)
+	{
+		storePos(xpos, ypos);
+		onMoved();
 	}
 	
 	/** Sets the x-position of this component */
 	public void setX(double xpos)
 	{
-		pos.setX(xpos);
-		if(collisionMask != null) collisionMask.setGlobalPos(pos);
+		storePos(xpos, getY());
+		onMoved();
 	}
 	
 	/** Sets the y-position of this component */
 	public void setY(double ypos)
 	{
-		pos.setY(ypos);
-		if(collisionMask != null) collisionMask.setGlobalPos(pos);
+		storePos(getX(), ypos);
+		onMoved();
 	}
 	
 	public void move(double x, double y)
 	{
-		pos.add(x, y);
-		if(collisionMask != null) collisionMask.setGlobalPos(pos);
+		storePos(getX() + x, getY() + y);
+		onMoved();
+	}
+	
+	/** Stores a new position without anything else being told. Objects which keep their position somewhere else
+	 * override this along with {@link #getX()} and {@link #getY()} */
+	protected void storePos(double xpos, double ypos)
+	{
+		x = xpos;
+		y = ypos;
+	}
+	
+	/** Moves the collision mask to the position and lets the world know, after the position has been stored */
+	protected void onMoved()
+	{
+		if(collisionMask != null) collisionMask.setGlobalPos(getX(), getY());
+		if(world != null) world.onObjectMoved(this);
 	}
 	
 	/** Returns whether a collision mask has been set for this object */
@@ -104,16 +136,16 @@ public abstract class GameObject
 	/** Sets the collision mask of this object */
 	public void setCollisionMask(CollisionMask<?> mask)
 	{
-		canDoFastCollision = mask.getGlobalShape() instanceof Rectangle2D;
 		collisionMask = mask;
-		mask.setGlobalPos(pos);
+		mask.setGlobalPos(getX(), getY());
+		if(world != null) world.onObjectMoved(this);
 	}
 	
 	/** Sets whether this object is allowed to do fast collision.
 	 * 
-	 * Fast collision is when the method {@link java.awt.Shape#intersects(Rectangle2D) Shape.intersects(Rectangle2D)} is
-	 * used to calculate collision when one of the collision masks uses a rectangle. This is faster, but can be less
-	 * accurate */
+	 * Fast collision is when the analytic tests in {@link CollisionMask#intersects(CollisionMask)} are used to
+	 * calculate collision, rather than intersecting {@link java.awt.geom.Area Area}s. This is much faster, but
+	 * some combinations of masks can be less accurate */
 	protected void setDoFastCollision(boolean doFastCollision)
 	{
 		fastCollision = doFastCollision;
@@ -131,8 +163,16 @@ public abstract class GameObject
 		return 16;
 	}
 	
-	/** Called every frame to draw this component */
-	public void draw(Graphics g)
+	/** Returns whether this object might draw anything inside the given area. Used to skip drawing objects which are
+	 * off-screen, so objects which draw far outside their position should override this */
+	public boolean isInView(double x, double y, double width, double height)
+	{
+		return getX() + 32 > x && getY() + 32 > y && getX() - 16 < x + width && getY() - 16 < y + height;
+	}
+	
+	/** Called every frame to draw this component. partialTicks is how far through the current tick the frame is,
+	 * between 0 and 1, for interpolating movement between ticks */
+	public void draw(Graphics g, float partialTicks)
 	{
 	}
 	
@@ -140,53 +180,60 @@ public abstract class GameObject
 	public boolean isCollidedWith(Point2D other)
 	{
 		if(collisionMask == null || other == null) return false;
-		return collisionMask.getGlobalShape().contains(other);
+		return collisionMask.contains(other.getX(), other.getY());
+	}
+	
+	/** Returns whether the given rectangle intersects the object's collision mask */
+	public boolean isCollidedWith(double x, double y, double width, double height)
+	{
+		if(collisionMask == null) return false;
+		if(fastCollision) return collisionMask.intersects(x, y, width, height);
+		return collisionMask.intersectsExactly(new Rectangle2D.Double(x, y, width, height));
 	}
 	
 	/** Returns whether the given shape intersects the object's collision mask */
 	public boolean isCollidedWith(Shape other)
 	{
 		if(collisionMask == null || other == null) return false;
-		if(canDoFastCollision && fastCollision)
-		{
-			return other.intersects((Rectangle2D) collisionMask.getGlobalShape());
-		}
-		else if(other instanceof Rectangle2D && fastCollision)
-		{
-			return collisionMask.getGlobalShape().intersects((Rectangle2D) other);
-		}
-		else
-		{
-			Area area = new Area(collisionMask.getGlobalShape());
-			area.intersect(new Area(other));
-			return !area.isEmpty();
-		}
+		if(fastCollision) return collisionMask.intersects(other);
+		return collisionMask.intersectsExactly(other);
 	}
 	
 	/** Returns whether this object's collision mask intersects the other object's collision mask */
 	public boolean isCollidedWith(GameObject other)
 	{
 		if(collisionMask == null || other == null || other.collisionMask == null) return false;
-		boolean doFastCollision = fastCollision && other.fastCollision;
-		if(canDoFastCollision && doFastCollision)
-		{
-			return other.collisionMask.getGlobalShape().intersects((Rectangle2D) collisionMask.getGlobalShape());
-		}
-		else if(other.canDoFastCollision && doFastCollision)
-		{
-			return collisionMask.getGlobalShape().intersects((Rectangle2D) other.collisionMask.getGlobalShape());
-		}
-		else
-		{
-			Area area = new Area(collisionMask.getGlobalShape());
-			area.intersect(new Area(other.collisionMask.getGlobalShape()));
-			return !area.isEmpty();
-		}
+		if(fastCollision && other.fastCollision) return collisionMask.intersects(other.collisionMask);
+		return collisionMask.intersectsExactly(other.collisionMask.getGlobalShape());
+	}
+	
+	/** Writes the state of this object which changes as the level is played, to be restored by
+	 * {@link #readState(StateBuffer)} when the level is restarted. Subclasses with more state write it after calling
+	 * the super method */
+	public void writeState(StateBuffer state)
+	{
+		state.writeDouble(getX());
+		state.writeDouble(getY());
+		state.writeInt(depth);
+	}
+	
+	/** Restores the state written by {@link #writeState(StateBuffer)}, reading it in the same order */
+	public void readState(StateBuffer state)
+	{
+		double xpos = state.readDouble();
+		double ypos = state.readDouble();
+		storePos(xpos, ypos);
+		onMoved();
+		setDepth(state.readInt());
 	}
 	
+	/** Sets the depth. Objects are drawn and updated in order of decreasing depth, and in the order they were added
+	 * within a depth, which doesn't change when the depth does */
 	public void setDepth(int depth)
 	{
+		if(this.depth == depth) return;
 		this.depth = depth;
+		if(world != null) world.onDepthChanged(this);
 	}
 	
 	public int getDepth()
@@ -18,7 +18,7 @@ public class MudObject extends GameObject
 	}
 	
 	@Override
-	public void draw(Graphics g)
+	public void draw(Graphics g, float partialTicks)
 	{
 		g.drawImage(texture, (int) getX(), (int) getY(), null);
 	}
@@ -1,77 +1,172 @@
 package net.earthcomputer.stepfish.object;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import net.earthcomputer.stepfish.util.GameObjectCreator;
 
 public class ObjectTypes
 {
 	
-	private static final Map<Integer, GameObjectCreator<?>> creatorsById = new HashMap<Integer, GameObjectCreator<?>>();
+	/** Indexed by id. Each creator calls its constructor directly, as object creation is hot while loading levels */
+	private static GameObjectCreator<?>[] creatorsById = new GameObjectCreator<?>[0];
+	private static boolean[] staticTypeIds = new boolean[0];
+	private static boolean[] alwaysLoadedTypeIds = new boolean[0];
 	
 	private ObjectTypes()
 	{
 	}
 	
+	/** Returns the creator for the given object type id, or null if there is no such type */
 	public static GameObjectCreator<?> getCreatorById(int id)
 	{
-		return creatorsById.get(id);
+		return id >= 0 && id < creatorsById.length ? creatorsById[id] : null;
 	}
 	
-	public static void registerTypes()
+	/** Returns whether objects of the given type never move or update, and fill a whole tile with a rectangular
+	 * collision mask, so they can be stored in the level's tiles rather than as objects */
+	public static boolean isStaticType(int id)
 	{
-		registerType(0, PlayerObject.class);
-		registerType(1, WallObject.class);
-		registerType(2, WallObject.class, EnumElement.EARTH);
-		registerType(3, WallObject.class, EnumElement.WATER);
-		registerType(4, WallObject.class, EnumElement.AIR);
-		registerType(5, WallObject.class, EnumElement.FIRE);
-		registerType(6, StarObject.class, 0);
-		registerType(7, ElementSwitcherObject.class);
-		registerType(8, FlyingCrossObject.class);
-		registerType(9, SpikeObject.class, EnumElement.EARTH, true);
-		registerType(10, ExitObject.class);
-		registerType(11, StarObject.class, 1);
-		registerType(12, StarObject.class, 2);
-		registerType(13, SpikeObject.class, EnumElement.EARTH, false);
-		registerType(14, SpikeObject.class, EnumElement.WATER, false);
-		registerType(15, SpikeObject.class, EnumElement.AIR, false);
-		registerType(16, SpikeObject.class, EnumElement.FIRE, false);
-		registerType(17, EnemyBlockerObject.class);
-		registerType(18, MudObject.class);
+		return id >= 0 && id < staticTypeIds.length && staticTypeIds[id];
 	}
 	
-	private static <T extends GameObject> void registerType(int id, final Class<T> clazz, Object... extraCtorArgs)
+	/** Returns whether objects of the given type are kept in the world even when they're far from the players of a
+	 * streamed level */
+	public static boolean isAlwaysLoadedType(int id)
 	{
-		if(extraCtorArgs == null) extraCtorArgs = new Object[0];
-		final Class<?>[] ctorArgsTypes = new Class<?>[extraCtorArgs.length + 2];
-		ctorArgsTypes[0] = double.class;
-		ctorArgsTypes[1] = double.class;
-		for(int i = 0; i < extraCtorArgs.length; i++)
-		{
-			ctorArgsTypes[i + 2] = extraCtorArgs[i].getClass();
-		}
-		final Object[] workingExtraCtorArgs = extraCtorArgs;
-		creatorsById.put(id, new GameObjectCreator<T>() {
+		return id >= 0 && id < alwaysLoadedTypeIds.length && alwaysLoadedTypeIds[id];
+	}
+	
+	public static void registerTypes()
+	{
+		registerAlwaysLoadedType(0, new GameObjectCreator<PlayerObject>() {
+			@Override
+			public PlayerObject create(double x, double y)
+			{
+				return new PlayerObject(x, y);
+			}
+		});
+		registerStaticType(1, new WallCreator(null));
+		registerStaticType(2, new WallCreator(EnumElement.EARTH));
+		registerStaticType(3, new WallCreator(EnumElement.WATER));
+		registerStaticType(4, new WallCreator(EnumElement.AIR));
+		registerStaticType(5, new WallCreator(EnumElement.FIRE));
+		registerType(6, new StarCreator(0));
+		registerType(7, new GameObjectCreator<ElementSwitcherObject>() {
+			@Override
+			public ElementSwitcherObject create(double x, double y)
+			{
+				return new ElementSwitcherObject(x, y);
+			}
+		});
+		registerType(8, new GameObjectCreator<FlyingCrossObject>() {
 			@Override
-			public T create(double x, double y)
+			public FlyingCrossObject create(double x, double y)
 			{
-				Object[] args = new Object[ctorArgsTypes.length];
-				args[0] = x;
-				args[1] = y;
-				System.arraycopy(workingExtraCtorArgs, 0, args, 2, workingExtraCtorArgs.length);
-				try
-				{
-					return clazz.getConstructor(ctorArgsTypes).newInstance(args);
-				}
-				catch (Exception e)
-				{
-					e.printStackTrace();
-					return null;
-				}
+				return new FlyingCrossObject(x, y);
 			}
 		});
+		registerType(9, new SpikeCreator(EnumElement.EARTH, true));
+		registerType(10, new GameObjectCreator<ExitObject>() {
+			@Override
+			public ExitObject create(double x, double y)
+			{
+				return new ExitObject(x, y);
+			}
+		});
+		registerType(11, new StarCreator(1));
+		registerType(12, new StarCreator(2));
+		registerType(13, new SpikeCreator(EnumElement.EARTH, false));
+		registerType(14, new SpikeCreator(EnumElement.WATER, false));
+		registerType(15, new SpikeCreator(EnumElement.AIR, false));
+		registerType(16, new SpikeCreator(EnumElement.FIRE, false));
+		registerStaticType(17, new GameObjectCreator<EnemyBlockerObject>() {
+			@Override
+			public EnemyBlockerObject create(double x, double y)
+			{
+				return new EnemyBlockerObject(x, y);
+			}
+		});
+		registerStaticType(18, new GameObjectCreator<MudObject>() {
+			@Override
+			public MudObject create(double x, double y)
+			{
+				return new MudObject(x, y);
+			}
+		});
+	}
+	
+	private static void registerStaticType(int id, GameObjectCreator<?> creator)
+	{
+		registerType(id, creator);
+		staticTypeIds[id] = true;
+	}
+	
+	private static void registerAlwaysLoadedType(int id, GameObjectCreator<?> creator)
+	{
+		registerType(id, creator);
+		alwaysLoadedTypeIds[id] = true;
+	}
+	
+	private static void registerType(int id, GameObjectCreator<?> creator)
+	{
+		if(id >= creatorsById.length)
+		{
+			creatorsById = Arrays.copyOf(creatorsById, id + 1);
+			staticTypeIds = Arrays.copyOf(staticTypeIds, id + 1);
+			alwaysLoadedTypeIds = Arrays.copyOf(alwaysLoadedTypeIds, id + 1);
+		}
+		creatorsById[id] = creator;
+	}
+	
+	private static class WallCreator implements GameObjectCreator<WallObject>
+	{
+		/** Null for walls which are solid to every element */
+		private final EnumElement element;
+		
+		public WallCreator(EnumElement element)
+		{
+			this.element = element;
+		}
+		
+		@Override
+		public WallObject create(double x, double y)
+		{
+			return new WallObject(x, y, element);
+		}
+	}
+	
+	private static class StarCreator implements GameObjectCreator<StarObject>
+	{
+		private final int index;
+		
+		public StarCreator(int index)
+		{
+			this.index = index;
+		}
+		
+		@Override
+		public StarObject create(double x, double y)
+		{
+			return new StarObject(x, y, index);
+		}
+	}
+	
+	private static class SpikeCreator implements GameObjectCreator<SpikeObject>
+	{
+		private final EnumElement element;
+		private final boolean switching;
+		
+		public SpikeCreator(EnumElement element, boolean switching)
+		{
+			this.element = element;
+			this.switching = switching;
+		}
+		
+		@Override
+		public SpikeObject create(double x, double y)
+		{
+			return new SpikeObject(x, y, element, switching);
+		}
 	}
 	
 }
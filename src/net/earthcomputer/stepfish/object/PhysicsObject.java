@@ -3,89 +3,199 @@ package net.earthcomputer.stepfish.object;
 import net.earthcomputer.stepfish.IUpdateListener;
 import net.earthcomputer.stepfish.geom.Pos;
 import net.earthcomputer.stepfish.geom.Velocity;
+import net.earthcomputer.stepfish.util.StateBuffer;
 
+/** An object which moves by its velocity every update, and whose velocity changes by its gravity, up to its terminal
+ * velocity. The position, previous position, velocity, gravity and terminal velocity are kept in a slot of a
+ * {@link PhysicsStore}, which is shared with the other physics objects in the world if the world has batch physics
+ * enabled */
 public class PhysicsObject extends GameObject implements IUpdateListener
 {
 	
-	private Pos posPrev;
-	private Velocity velocity;
-	private Velocity gravity;
+	private PhysicsStore store;
+	private int slot;
+	/** Whether the object has moved since it was created, so that the previous position in the store is meaningful */
+	private boolean hasPreviousPos;
+	/** The speed and direction, worked out from the velocity components when they're asked for, in the same way as
+	 * {@link Velocity} does */
+	private float speed;
+	private float direction;
+	private boolean polarValid = true;
+	private final Velocity gravity;
 	
 	public PhysicsObject(double x, double y)
 	{
 		super(x, y);
-		this.velocity = Velocity.createFromXAndYComponents(0, 0);
+		this.store = new PhysicsStore(1);
+		this.slot = store.add(this, x, y);
 		this.gravity = Velocity.createFromXAndYComponents(0, 0);
 	}
 	
+	@Override
+	public double getX()
+	{
+		return store.x[slot];
+	}
+	
+	@Override
+	public double getY()
+	{
+		return store.y[slot];
+	}
+	
+	@Override
+	protected void storePos(double xpos, double ypos)
+	{
+		store.x[slot] = xpos;
+		store.y[slot] = ypos;
+	}
+	
+	/** Moves into the world's physics store, if it has one */
+	@Override
+	public void onAdded()
+	{
+		super.onAdded();
+		PhysicsStore worldStore = world.getPhysicsStore();
+		if(worldStore != null) moveToStore(worldStore);
+	}
+	
+	/** Moves back out into a store of its own, so that it isn't moved with the world's objects any more */
+	@Override
+	public void onRemoved()
+	{
+		super.onRemoved();
+		if(store == world.getPhysicsStore()) moveToStore(new PhysicsStore(1));
+	}
+	
+	private void moveToStore(PhysicsStore newStore)
+	{
+		if(newStore == store) return;
+		int newSlot = newStore.copyFrom(store, slot);
+		store.remove(slot);
+		store = newStore;
+		slot = newSlot;
+	}
+	
+	int getSlot()
+	{
+		return slot;
+	}
+	
+	/** Called by the store when it moves this object to another slot */
+	void onSlotMoved(int slot)
+	{
+		this.slot = slot;
+	}
+	
+	/** Called by the store after it has moved this object by its velocity */
+	void onIntegrated()
+	{
+		hasPreviousPos = true;
+		polarValid = false;
+		onMoved();
+	}
+	
+	/** Returns an unmodifiable copy of the velocity. Prefer the methods for the parts of the velocity, which don't
+	 * allocate */
 	public Velocity getVelocity()
 	{
-		return Velocity.unmodifiableVelocity(velocity);
+		return Velocity.unmodifiableVelocity(Velocity.createFromSpeedAndDirection(getSpeed(), getDirection()));
 	}
 	
 	public float getSpeed()
 	{
-		return velocity.getSpeed();
+		updatePolar();
+		return speed;
 	}
 	
 	public float getDirection()
 	{
-		return velocity.getDirection();
+		updatePolar();
+		return direction;
 	}
 	
 	public float getXVelocity()
 	{
-		return velocity.getXComponent();
+		return store.xvel[slot];
 	}
 	
 	public float getYVelocity()
 	{
-		return velocity.getYComponent();
+		return store.yvel[slot];
 	}
 	
 	public void setVelocity(Velocity vel)
 	{
-		this.velocity = Velocity.copyOf(vel);
+		setPolar(vel.getSpeed(), vel.getDirection());
 	}
 	
 	public void setSpeed(float speed)
 	{
-		velocity.setSpeed(speed);
+		updatePolar();
+		setPolar(speed, direction);
 	}
 	
 	public void setDirection(float direction)
 	{
-		velocity.setDirection(direction);
+		updatePolar();
+		setPolar(speed, direction);
 	}
 	
 	public void setXVelocity(float xvel)
 	{
-		velocity.setXComponent(xvel);
+		store.xvel[slot] = xvel;
+		polarValid = false;
 	}
 	
 	public void setYVelocity(float yvel)
 	{
-		velocity.setYComponent(yvel);
+		store.yvel[slot] = yvel;
+		polarValid = false;
 	}
 	
 	public void accelerate(float amt)
 	{
-		velocity.accelerate(amt);
+		setSpeed(getSpeed() + amt);
 	}
 	
 	public void turn(float amt)
 	{
-		velocity.turn(amt);
+		setDirection(getDirection() + amt);
 	}
 	
 	public void accelerateX(float amt)
 	{
-		velocity.accelerateX(amt);
+		setXVelocity(getXVelocity() + amt);
 	}
 	
 	public void accelerateY(float amt)
 	{
-		velocity.accelerateY(amt);
+		setYVelocity(getYVelocity() + amt);
+	}
+	
+	private void setPolar(float speed, float direction)
+	{
+		if(speed < 0)
+		{
+			speed = -speed;
+			direction += 180;
+		}
+		direction = Velocity.directionInBounds(direction);
+		this.speed = speed;
+		this.direction = direction;
+		store.xvel[slot] = Velocity.xComponentOf(speed, direction);
+		store.yvel[slot] = Velocity.yComponentOf(speed, direction);
+		polarValid = true;
+	}
+	
+	private void updatePolar()
+	{
+		if(!polarValid)
+		{
+			speed = Velocity.speedOf(getXVelocity(), getYVelocity());
+			direction = Velocity.directionOf(getXVelocity(), getYVelocity());
+			polarValid = true;
+		}
 	}
 	
 	/** Adds gravity to this object
@@ -95,17 +205,27 @@ public class PhysicsObject extends GameObject implements IUpdateListener
 	public void addGravity(Velocity gravity)
 	{
 		this.gravity.accelerate(gravity);
+		storeGravity();
 	}
 	
 	public void setGravity(Velocity gravity)
 	{
 		this.gravity.setSpeed(gravity.getSpeed());
 		this.gravity.setDirection(gravity.getDirection());
+		storeGravity();
 	}
 	
 	public void removeGravity()
 	{
 		this.gravity.setSpeed(0);
+		storeGravity();
+	}
+	
+	/** Copies the gravity's components into the store, after the gravity has changed */
+	private void storeGravity()
+	{
+		store.gravityX[slot] = gravity.getXComponent();
+		store.gravityY[slot] = gravity.getYComponent();
 	}
 	
 	public Velocity getGravity()
@@ -113,19 +233,98 @@ public class PhysicsObject extends GameObject implements IUpdateListener
 		return Velocity.copyOf(gravity);
 	}
 	
+	/** Gets the fastest this object can fall, which is infinite unless it has been set */
+	public float getTerminalVelocity()
+	{
+		return store.terminalVelocity[slot];
+	}
+	
+	/** Sets the fastest this object can fall. Each update, after gravity has been added, the y-velocity is capped at
+	 * this */
+	public void setTerminalVelocity(float terminalVelocity)
+	{
+		store.terminalVelocity[slot] = terminalVelocity;
+	}
+	
+	/** Returns a copy of the position at the start of the last update. Prefer {@link #getPreviousX()} and
+	 * {@link #getPreviousY()}, which don't allocate */
 	public Pos getPreviousPos()
 	{
-		return Pos.copyOf(posPrev);
+		return new Pos(getPreviousX(), getPreviousY());
+	}
+	
+	/** Gets the x-position at the start of the last update, or the current x-position if there hasn't been one */
+	public double getPreviousX()
+	{
+		return hasPreviousPos ? store.prevX[slot] : getX();
+	}
+	
+	/** Gets the y-position at the start of the last update, or the current y-position if there hasn't been one */
+	public double getPreviousY()
+	{
+		return hasPreviousPos ? store.prevY[slot] : getY();
+	}
+	
+	/** Gets the x-position of this object interpolated between the previous tick and this tick */
+	public double getInterpolatedX(float partialTicks)
+	{
+		if(!hasPreviousPos) return getX();
+		double prevX = store.prevX[slot];
+		return prevX + (getX() - prevX) * partialTicks;
+	}
+	
+	/** Gets the y-position of this object interpolated between the previous tick and this tick */
+	public double getInterpolatedY(float partialTicks)
+	{
+		if(!hasPreviousPos) return getY();
+		double prevY = store.prevY[slot];
+		return prevY + (getY() - prevY) * partialTicks;
+	}
+	
+	@Override
+	public void writeState(StateBuffer state)
+	{
+		super.writeState(state);
+		state.writeBoolean(hasPreviousPos);
+		if(hasPreviousPos)
+		{
+			state.writeDouble(store.prevX[slot]);
+			state.writeDouble(store.prevY[slot]);
+		}
+		state.writeBoolean(polarValid);
+		state.writeFloat(speed);
+		state.writeFloat(direction);
+		state.writeFloat(getXVelocity());
+		state.writeFloat(getYVelocity());
+		gravity.writeState(state);
+	}
+	
+	@Override
+	public void readState(StateBuffer state)
+	{
+		super.readState(state);
+		hasPreviousPos = state.readBoolean();
+		if(hasPreviousPos)
+		{
+			store.prevX[slot] = state.readDouble();
+			store.prevY[slot] = state.readDouble();
+		}
+		polarValid = state.readBoolean();
+		speed = state.readFloat();
+		direction = state.readFloat();
+		store.xvel[slot] = state.readFloat();
+		store.yvel[slot] = state.readFloat();
+		gravity.readState(state);
+		storeGravity();
 	}
 	
+	/** Moves the object by its velocity and accelerates it by its gravity up to its terminal velocity, unless it is in
+	 * the world's physics store, in which case the world has just moved it along with the physics objects next to it
+	 * in update order */
 	@Override
 	public void update()
 	{
-		posPrev = Pos.copyOf(getPos());
-		
-		move(velocity.getXComponent(), velocity.getYComponent());
-		
-		velocity.accelerate(gravity);
+		if(store != world.getPhysicsStore()) store.integrate(slot);
 	}
 	
 	@Override
@@ -7,14 +7,14 @@ import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.util.EnumMap;
 
+import net.earthcomputer.stepfish.World;
 import net.earthcomputer.stepfish.geom.Velocity;
 import net.earthcomputer.stepfish.geom.collision.MaskRectangle;
 import net.earthcomputer.stepfish.geom.collision.MoveToContactHelper;
-import net.earthcomputer.stepfish.gui.GuiPauseMenu;
+import net.earthcomputer.stepfish.util.IInputSource;
 import net.earthcomputer.stepfish.util.Images;
-import net.earthcomputer.stepfish.util.Keyboard;
 import net.earthcomputer.stepfish.util.Predicate;
-import net.earthcomputer.stepfish.util.SoundManager;
+import net.earthcomputer.stepfish.util.StateBuffer;
 
 public class PlayerObject extends PhysicsObject
 {
@@ -88,6 +88,10 @@ public class PlayerObject extends PhysicsObject
 		
 	};
 	private MoveToContactHelper moveToContactHelper = new MoveToContactHelper(this, wallCollisionPredicate);
+	/** Reused every tick to check for solids below the player */
+	private final Line2D.Double groundCheckLine = new Line2D.Double();
+	/** The world input's ids of the key bindings the player uses, looked up once rather than by name every tick */
+	private int jumpKey = -1, moveLeftKey = -1, moveRightKey = -1, pauseKey = -1;
 	
 	public PlayerObject(double x, double y)
 	{
@@ -96,6 +100,18 @@ public class PlayerObject extends PhysicsObject
 		element = EnumElement.EARTH;
 		setCollisionMask(new MaskRectangle(16, 16));
 		setDepth(-1000);
+		setTerminalVelocity(10);
+	}
+	
+	@Override
+	public void setWorld(World world)
+	{
+		super.setWorld(world);
+		IInputSource input = world.getInput();
+		jumpKey = input.getBindingId("jump");
+		moveLeftKey = input.getBindingId("moveLeft");
+		moveRightKey = input.getBindingId("moveRight");
+		pauseKey = input.getBindingId("closeGui");
 	}
 	
 	public void changeState(EnumPlayerState newState)
@@ -122,32 +138,50 @@ public class PlayerObject extends PhysicsObject
 		this.element = element;
 	}
 	
+	@Override
+	public void writeState(StateBuffer state)
+	{
+		super.writeState(state);
+		state.writeInt(ticksExisted);
+		state.writeEnum(this.state);
+		state.writeEnum(element);
+		state.writeEnum(facing);
+	}
+	
+	@Override
+	public void readState(StateBuffer state)
+	{
+		super.readState(state);
+		ticksExisted = state.readInt();
+		// Not through changeState, as the gravity has been restored already
+		this.state = state.readEnum(EnumPlayerState.class);
+		element = state.readEnum(EnumElement.class);
+		facing = state.readEnum(EnumFacing.class);
+	}
+	
 	@Override
 	public void update()
 	{
 		ticksExisted++;
 		
-		// Physics
+		// Physics, including terminal velocity
 		super.update();
 		
-		// Terminal velocity
-		if(getYVelocity() > 10) setYVelocity(10);
-		
 		// Move to contact with solids
-		if(window.isObjectCollidedWith(this, wallCollisionPredicate))
+		if(world.isObjectCollidedWith(this, wallCollisionPredicate))
 		{
 			moveToContactHelper.moveToContact();
 		}
 		
 		// land if there is a solid below, fall if there isn't
-		if(window.isShapeCollidedWith(new Line2D.Double(getX() + 1, getY() + 16, getX() + 15, getY() + 16),
-			wallCollisionPredicate))
+		groundCheckLine.setLine(getX() + 1, getY() + 16, getX() + 15, getY() + 16);
+		if(world.isShapeCollidedWith(groundCheckLine, wallCollisionPredicate))
 		{
 			if(!state.needsSupport())
 			{
-				if(getY() > getPreviousPos().getY())
+				if(getY() > getPreviousY())
 				{
-					SoundManager.playSound("jump_land");
+					world.playSound("jump_land");
 				}
 				if(getXVelocity() == 0)
 				{
@@ -165,20 +199,21 @@ public class PlayerObject extends PhysicsObject
 		}
 		
 		// Keyboard input
-		if(Keyboard.isKeyPressed("jump") && state.needsSupport())
+		IInputSource input = world.getInput();
+		if(input.isKeyPressed(jumpKey) && state.needsSupport())
 		{
 			changeState(EnumPlayerState.AIR);
 			accelerateY(-8);
 		}
 		
-		if(Keyboard.isKeyDown("moveLeft") ^ Keyboard.isKeyDown("moveRight"))
+		if(input.isKeyDown(moveLeftKey) ^ input.isKeyDown(moveRightKey))
 		{
 			if(state == EnumPlayerState.STAND)
 			{
 				changeState(EnumPlayerState.WALK);
 			}
 			
-			if(Keyboard.isKeyDown("moveLeft"))
+			if(input.isKeyDown(moveLeftKey))
 			{
 				facing = EnumFacing.LEFT;
 				setXVelocity(Math.max(getXVelocity() - 2, -7));
@@ -205,13 +240,13 @@ public class PlayerObject extends PhysicsObject
 			}
 		}
 		
-		if(Keyboard.isKeyPressed("closeGui"))
+		if(input.isKeyPressed(pauseKey))
 		{
-			window.openGui(new GuiPauseMenu());
+			world.requestPause();
 		}
 		
 		// Mud
-		if(window.isObjectCollidedWith(this, MudObject.class))
+		if(world.isObjectCollidedWith(this, MudObject.class))
 		{
 			if(getSpeed() > 1)
 			{
@@ -220,21 +255,21 @@ public class PlayerObject extends PhysicsObject
 		}
 		
 		// Restart level if fallen off
-		if(getY() >= window.getHeight()) window.failLevel(this);
+		if(getY() >= world.getHeight()) world.failLevel(this);
 		
 		// Footsteps
 		if(state == EnumPlayerState.WALK && ticksExisted % TICKS_PER_FRAME == 0
-			&& this.getPreviousPos().getX() != getX())
+			&& getPreviousX() != getX())
 		{
-			SoundManager.playSound("footstep");
+			world.playSound("footstep");
 		}
 	}
 	
 	@Override
-	public void draw(Graphics g)
+	public void draw(Graphics g, float partialTicks)
 	{
-		int x = (int) getX();
-		int y = (int) getY();
+		int x = (int) getInterpolatedX(partialTicks);
+		int y = (int) getInterpolatedY(partialTicks);
 		BufferedImage[] frames = textures.get(element).get(state).get(facing);
 		g.drawImage(frames[(ticksExisted / TICKS_PER_FRAME) % frames.length], x, y, null);
 	}
@@ -6,12 +6,13 @@ import java.util.EnumMap;
 import java.util.Iterator;
 
 import net.earthcomputer.stepfish.Stepfish;
-import net.earthcomputer.stepfish.IUpdateListener;
+import net.earthcomputer.stepfish.IParallelUpdateListener;
 import net.earthcomputer.stepfish.geom.collision.MaskPolygon;
 import net.earthcomputer.stepfish.util.Images;
 import net.earthcomputer.stepfish.util.Predicate;
+import net.earthcomputer.stepfish.util.StateBuffer;
 
-public class SpikeObject extends GameObject implements IUpdateListener
+public class SpikeObject extends GameObject implements IParallelUpdateListener
 {
 	
 	private static final EnumMap<EnumElement, BufferedImage> textures = new EnumMap<EnumElement, BufferedImage>(
@@ -29,11 +30,6 @@ public class SpikeObject extends GameObject implements IUpdateListener
 	private EnumElement element;
 	private int ticksUntilSwitch;
 	
-	public SpikeObject(double x, double y, EnumElement element, Boolean switching)
-	{
-		this(x, y, element, switching.booleanValue());
-	}
-	
 	public SpikeObject(double x, double y, EnumElement element, boolean switching)
 	{
 		super(x, y);
@@ -43,13 +39,29 @@ public class SpikeObject extends GameObject implements IUpdateListener
 	}
 	
 	@Override
-	public void draw(Graphics g)
+	public void draw(Graphics g, float partialTicks)
 	{
 		int x = (int) getX();
 		int y = (int) getY();
 		g.drawImage(textures.get(element), x, y, null);
 	}
 	
+	@Override
+	public void writeState(StateBuffer state)
+	{
+		super.writeState(state);
+		state.writeEnum(element);
+		state.writeInt(ticksUntilSwitch);
+	}
+	
+	@Override
+	public void readState(StateBuffer state)
+	{
+		super.readState(state);
+		element = state.readEnum(EnumElement.class);
+		ticksUntilSwitch = state.readInt();
+	}
+	
 	@Override
 	public void update()
 	{
@@ -63,7 +75,7 @@ public class SpikeObject extends GameObject implements IUpdateListener
 			ticksUntilSwitch--;
 		}
 		
-		Iterator<GameObject> collidedPlayers = window.getObjectsThatCollideWith(this, new Predicate<GameObject>() {
+		Iterator<GameObject> collidedPlayers = world.getObjectsThatCollideWith(this, new Predicate<GameObject>() {
 			@Override
 			public boolean apply(GameObject input)
 			{
@@ -72,7 +84,7 @@ public class SpikeObject extends GameObject implements IUpdateListener
 		}).iterator();
 		if(collidedPlayers.hasNext())
 		{
-			window.failLevel((PlayerObject) collidedPlayers.next(), this);
+			world.failLevel((PlayerObject) collidedPlayers.next(), this);
 		}
 	}
 	
@@ -3,24 +3,17 @@ package net.earthcomputer.stepfish.object;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 
-import net.earthcomputer.stepfish.IUpdateListener;
+import net.earthcomputer.stepfish.IParallelUpdateListener;
 import net.earthcomputer.stepfish.geom.collision.MaskRectangle;
 import net.earthcomputer.stepfish.util.Images;
-import net.earthcomputer.stepfish.util.SoundManager;
 
-public class StarObject extends GameObject implements IUpdateListener
+public class StarObject extends GameObject implements IParallelUpdateListener
 {
 	
 	public static final BufferedImage STAR_TEXTURE = Images.loadImage("object/star");
 	
 	private int index;
 	
-	// Required for loading levels
-	public StarObject(double x, double y, Integer index)
-	{
-		this(x, y, index.intValue());
-	}
-	
 	public StarObject(double x, double y, int index)
 	{
 		super(x, y);
@@ -31,14 +24,14 @@ public class StarObject extends GameObject implements IUpdateListener
 	@Override
 	public void onAdded()
 	{
-		if(window.getProfile().isStarObtained(window.getCurrentLevelIndex(), index))
+		if(world.isStarObtained(index))
 		{
-			window.removeObject(this);
+			world.removeObject(this);
 		}
 	}
 	
 	@Override
-	public void draw(Graphics g)
+	public void draw(Graphics g, float partialTicks)
 	{
 		g.drawImage(STAR_TEXTURE, (int) getX(), (int) getY(), null);
 	}
@@ -46,11 +39,11 @@ public class StarObject extends GameObject implements IUpdateListener
 	@Override
 	public void update()
 	{
-		if(window.isObjectCollidedWith(this, PlayerObject.class))
+		if(world.isObjectCollidedWith(this, PlayerObject.class))
 		{
-			SoundManager.playSound("star");
-			window.completeStar(index);
-			window.removeObject(this);
+			world.playSound("star");
+			world.completeStar(index);
+			world.removeObject(this);
 		}
 	}
 	
@@ -37,7 +37,7 @@ public class WallObject extends GameObject
 	}
 	
 	@Override
-	public void draw(Graphics g)
+	public void draw(Graphics g, float partialTicks)
 	{
 		int x = (int) getX();
 		int y = (int) getY();
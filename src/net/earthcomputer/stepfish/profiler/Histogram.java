@@ -0,0 +1,106 @@
+package net.earthcomputer.stepfish.profiler;
+
+import java.util.Arrays;
+
+/**
+ * Counts how many times each value has been recorded, in buckets which are a
+ * sixteenth of a power of two wide, so percentiles are accurate to within about
+ * 6% whatever the magnitude of the values. The maximum is kept exactly.
+ *
+ * All methods are synchronized, so values may be recorded on one thread and
+ * read on another.
+ */
+public class Histogram {
+
+	/** The number of buckets each power of two is split into */
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long totalCount;
+	private long total;
+	private long max;
+
+	/** Records a value. Negative values are recorded as 0 */
+	public synchronized void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts[getBucket(value)]++;
+		totalCount++;
+		total += value;
+		if (value > max)
+			max = value;
+	}
+
+	public synchronized long getCount() {
+		return totalCount;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized double getMean() {
+		return totalCount == 0 ? 0 : (double) total / totalCount;
+	}
+
+	/**
+	 * Returns the value which the given fraction of recorded values are less
+	 * than or equal to, rounded up to the top of its bucket but never more than
+	 * the maximum. Returns 0 if nothing has been recorded
+	 */
+	public synchronized long getPercentile(double fraction) {
+		if (totalCount == 0)
+			return 0;
+		long target = Math.max(1, (long) Math.ceil(fraction * totalCount));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			seen += counts[bucket];
+			if (seen >= target) {
+				return Math.min(max, getBucketTop(bucket));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns a copy of this histogram and clears it, as one step so that values
+	 * recorded on another thread in the meantime aren't lost or half counted
+	 */
+	public synchronized Histogram getAndReset() {
+		Histogram copy = new Histogram();
+		System.arraycopy(counts, 0, copy.counts, 0, BUCKET_COUNT);
+		copy.totalCount = totalCount;
+		copy.total = total;
+		copy.max = max;
+		reset();
+		return copy;
+	}
+
+	public synchronized void reset() {
+		Arrays.fill(counts, 0);
+		totalCount = 0;
+		total = 0;
+		max = 0;
+	}
+
+	private static int getBucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/** Returns the largest value which goes in the given bucket */
+	private static long getBucketTop(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		long bottom = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		return bottom + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
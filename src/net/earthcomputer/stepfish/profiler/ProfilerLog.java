@@ -0,0 +1,84 @@
+package net.earthcomputer.stepfish.profiler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import net.earthcomputer.stepfish.Stepfish;
+
+/**
+ * Writes what a tick profiler recorded in each second to a CSV file, one row
+ * per section which ran. When the file gets too big it is moved to the same
+ * name with ".1" on the end, replacing the last one, and a new file is started.
+ */
+public class ProfilerLog {
+
+	private static final String HEADER = "tick,section,calls,p50_ms,p99_ms,max_ms,allocated_bytes\n";
+	private static final int MAX_FILE_SIZE = 16 * 1024 * 1024;
+
+	private final File file;
+	private Writer writer;
+	private long bytesWritten;
+
+	public ProfilerLog(File file) throws IOException {
+		this.file = file;
+		open();
+	}
+
+	private void open() throws IOException {
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+		write(HEADER);
+	}
+
+	/** Called at the end of every tick, writes a row per section every second */
+	void onTickEnded(TickProfiler profiler) throws IOException {
+		long tick = profiler.getTickCount();
+		if (tick % Stepfish.TICKRATE != 0)
+			return;
+
+		for (TickProfiler.Section section : profiler.getSections()) {
+			long calls = section.intervalCalls.getAndSet(0);
+			long allocated = section.intervalAllocatedBytes.getAndSet(0);
+			if (calls == 0)
+				continue;
+			// The frame section is recorded on the drawing thread while this
+			// runs on the ticking thread, so take the interval's values in one
+			// step rather than reading them and then resetting
+			Histogram histogram = section.intervalHistogram.getAndReset();
+			write(String.format(Locale.ROOT, "%d,%s,%d,%.3f,%.3f,%.3f,%d\n", tick, section.getName(), calls,
+					TickProfiler.toMillis(histogram.getPercentile(0.5)),
+					TickProfiler.toMillis(histogram.getPercentile(0.99)), TickProfiler.toMillis(histogram.getMax()),
+					allocated));
+		}
+		writer.flush();
+
+		if (bytesWritten > MAX_FILE_SIZE) {
+			writer.close();
+			File oldFile = new File(file.getPath() + ".1");
+			oldFile.delete();
+			if (!file.renameTo(oldFile))
+				throw new IOException("Couldn't move full profiler log to " + oldFile);
+			bytesWritten = 0;
+			open();
+		}
+	}
+
+	private void write(String str) throws IOException {
+		writer.write(str);
+		bytesWritten += str.length();
+	}
+
+	public void close() {
+		try {
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
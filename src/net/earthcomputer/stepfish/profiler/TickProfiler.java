@@ -0,0 +1,360 @@
+package net.earthcomputer.stepfish.profiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measures how long each part of a tick takes, how much it allocates, and how
+ * many collision queries are made for each class of object.
+ *
+ * A tick is split into named sections, which may be nested. The time a section
+ * takes in a tick is the total of all the times it ran in that tick, so the
+ * update of every object of a class is grouped into one section. Sections are
+ * started and ended on the ticking thread, except for the frame section, which
+ * is recorded on the drawing thread.
+ *
+ * The profiler is only created if the {@value #ENABLED_PROPERTY} or
+ * {@value #LOG_PROPERTY} system property is set, so that it costs nothing
+ * otherwise. It is published through JMX as a {@link TickProfilerMXBean}.
+ */
+public class TickProfiler implements TickProfilerMXBean {
+
+	/** Set to true to profile the game */
+	public static final String ENABLED_PROPERTY = "stepfish.profiler";
+	/** Set to a file to log profiling results to every second, as CSV */
+	public static final String LOG_PROPERTY = "stepfish.profiler.log";
+	public static final String OBJECT_NAME = "net.earthcomputer.stepfish:type=TickProfiler";
+
+	/** Null if the JVM can't measure how much a thread has allocated */
+	private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = getAllocationBean();
+
+	private final ConcurrentMap<String, Section> sections = new ConcurrentHashMap<String, Section>();
+	/** The update section for each class, only accessed from the ticking thread */
+	private final Map<Class<?>, Section> updateSections = new HashMap<Class<?>, Section>();
+	/** Only accessed from the ticking thread */
+	private final List<Section> sectionsThisTick = new ArrayList<Section>();
+	private final ConcurrentMap<Class<?>, AtomicLong> collisionQueries = new ConcurrentHashMap<Class<?>, AtomicLong>();
+	private final AtomicLong skippedTicks = new AtomicLong();
+	private final Section tickSection = getSection("tick");
+	private final Section frameSection = getSection("frame");
+	private volatile long tickCount;
+
+	private ProfilerLog log;
+
+	/**
+	 * Creates a profiler and registers it with JMX, if profiling is enabled by
+	 * the system properties. Otherwise, returns null
+	 */
+	public static TickProfiler createIfEnabled() {
+		String logFile = System.getProperty(LOG_PROPERTY);
+		if (!Boolean.getBoolean(ENABLED_PROPERTY) && logFile == null)
+			return null;
+
+		TickProfiler profiler = new TickProfiler();
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(profiler, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			// Non-fatal error, the profiler can still log
+			e.printStackTrace();
+		}
+		if (logFile != null) {
+			try {
+				profiler.setLog(new ProfilerLog(new File(logFile)));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return profiler;
+	}
+
+	/** Sets the log to write results to every second, or null for no log */
+	public void setLog(ProfilerLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Returns the section with the given name, creating it if this is the first
+	 * time it has been asked for
+	 */
+	public Section getSection(String name) {
+		Section section = sections.get(name);
+		if (section == null) {
+			section = new Section(name);
+			Section existing = sections.putIfAbsent(name, section);
+			if (existing != null)
+				section = existing;
+		}
+		return section;
+	}
+
+	/** Returns the section for updating update listeners of the given class */
+	public Section getUpdateSection(Class<?> clazz) {
+		Section section = updateSections.get(clazz);
+		if (section == null) {
+			section = getSection("update/" + clazz.getSimpleName());
+			updateSections.put(clazz, section);
+		}
+		return section;
+	}
+
+	public void startTick() {
+		start(tickSection);
+	}
+
+	/**
+	 * Ends the tick, recording the time each section took in it. Every section
+	 * started during the tick must have been ended
+	 */
+	public void endTick() {
+		end(tickSection);
+		for (Section section : sectionsThisTick) {
+			section.recordTick();
+		}
+		sectionsThisTick.clear();
+		tickCount++;
+
+		if (log != null) {
+			try {
+				log.onTickEnded(this);
+			} catch (IOException e) {
+				e.printStackTrace();
+				log.close();
+				log = null;
+			}
+		}
+	}
+
+	public void start(Section section) {
+		section.startNanos = System.nanoTime();
+		section.startAllocated = getAllocatedBytes();
+	}
+
+	public void end(Section section) {
+		section.finish();
+		if (!section.ranThisTick) {
+			section.ranThisTick = true;
+			sectionsThisTick.add(section);
+		}
+	}
+
+	/** Called on the drawing thread before a frame is drawn */
+	public void startFrame() {
+		start(frameSection);
+	}
+
+	/** Called on the drawing thread after a frame is drawn */
+	public void endFrame() {
+		frameSection.finish();
+		frameSection.recordTick();
+	}
+
+	/**
+	 * Called whenever the world is asked which objects collide with an object
+	 * or shape of the given class
+	 */
+	public void onCollisionQuery(Class<?> clazz) {
+		AtomicLong count = collisionQueries.get(clazz);
+		if (count == null) {
+			count = new AtomicLong();
+			AtomicLong existing = collisionQueries.putIfAbsent(clazz, count);
+			if (existing != null)
+				count = existing;
+		}
+		count.incrementAndGet();
+	}
+
+	/** Called when the game loop can't keep up and skips ticks */
+	public void onTicksSkipped(long count) {
+		skippedTicks.addAndGet(count);
+	}
+
+	/** Returns all the sections, sorted by name */
+	public List<Section> getSections() {
+		return new ArrayList<Section>(new TreeMap<String, Section>(sections).values());
+	}
+
+	@Override
+	public long getTickCount() {
+		return tickCount;
+	}
+
+	@Override
+	public long getSkippedTicks() {
+		return skippedTicks.get();
+	}
+
+	@Override
+	public double getTickTimeP50() {
+		return toMillis(tickSection.histogram.getPercentile(0.5));
+	}
+
+	@Override
+	public double getTickTimeP99() {
+		return toMillis(tickSection.histogram.getPercentile(0.99));
+	}
+
+	@Override
+	public double getTickTimeMax() {
+		return toMillis(tickSection.histogram.getMax());
+	}
+
+	@Override
+	public Map<String, Double> getSectionTimesP50() {
+		Map<String, Double> times = new TreeMap<String, Double>();
+		for (Section section : sections.values()) {
+			times.put(section.name, toMillis(section.histogram.getPercentile(0.5)));
+		}
+		return times;
+	}
+
+	@Override
+	public Map<String, Double> getSectionTimesP99() {
+		Map<String, Double> times = new TreeMap<String, Double>();
+		for (Section section : sections.values()) {
+			times.put(section.name, toMillis(section.histogram.getPercentile(0.99)));
+		}
+		return times;
+	}
+
+	@Override
+	public Map<String, Double> getSectionTimesMax() {
+		Map<String, Double> times = new TreeMap<String, Double>();
+		for (Section section : sections.values()) {
+			times.put(section.name, toMillis(section.histogram.getMax()));
+		}
+		return times;
+	}
+
+	@Override
+	public Map<String, Long> getSectionCalls() {
+		Map<String, Long> calls = new TreeMap<String, Long>();
+		for (Section section : sections.values()) {
+			calls.put(section.name, section.calls.get());
+		}
+		return calls;
+	}
+
+	@Override
+	public Map<String, Long> getSectionAllocatedBytes() {
+		Map<String, Long> allocated = new TreeMap<String, Long>();
+		if (ALLOCATION_BEAN != null) {
+			for (Section section : sections.values()) {
+				allocated.put(section.name, section.allocatedBytes.get());
+			}
+		}
+		return allocated;
+	}
+
+	@Override
+	public Map<String, Long> getCollisionQueries() {
+		Map<String, Long> queries = new TreeMap<String, Long>();
+		for (Map.Entry<Class<?>, AtomicLong> entry : collisionQueries.entrySet()) {
+			// Not the simple name, so that nested shape classes such as
+			// Rectangle2D.Double can be told apart
+			String className = entry.getKey().getName();
+			queries.put(className.substring(className.lastIndexOf('.') + 1), entry.getValue().get());
+		}
+		return queries;
+	}
+
+	/**
+	 * Clears everything recorded so far. Sections which are running carry on
+	 * being timed
+	 */
+	@Override
+	public void reset() {
+		for (Section section : sections.values()) {
+			section.histogram.reset();
+			section.calls.set(0);
+			section.allocatedBytes.set(0);
+		}
+		collisionQueries.clear();
+		skippedTicks.set(0);
+		tickCount = 0;
+	}
+
+	static double toMillis(long nanos) {
+		return nanos / 1000000.0;
+	}
+
+	private static long getAllocatedBytes() {
+		if (ALLOCATION_BEAN == null)
+			return 0;
+		return ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean getAllocationBean() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		if (!allocationBean.isThreadAllocatedMemorySupported())
+			return null;
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+		return allocationBean;
+	}
+
+	/**
+	 * A named part of a tick. The totals may be read from any thread, but a
+	 * section may only be timed on one thread: the ticking thread, or the
+	 * drawing thread for the frame section. The timing fields are confined to
+	 * that thread, and other threads only see the histograms and counters
+	 */
+	public static class Section {
+
+		private final String name;
+		/** The time taken in each tick the section ran in */
+		private final Histogram histogram = new Histogram();
+		/** Like histogram, but cleared each time the log is written */
+		final Histogram intervalHistogram = new Histogram();
+		private final AtomicLong calls = new AtomicLong();
+		private final AtomicLong allocatedBytes = new AtomicLong();
+		final AtomicLong intervalCalls = new AtomicLong();
+		final AtomicLong intervalAllocatedBytes = new AtomicLong();
+
+		private long startNanos;
+		private long startAllocated;
+		/** The total time taken so far in the current tick */
+		private long tickNanos;
+		private boolean ranThisTick;
+
+		private Section(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		private void finish() {
+			tickNanos += System.nanoTime() - startNanos;
+			long allocated = getAllocatedBytes() - startAllocated;
+			calls.incrementAndGet();
+			intervalCalls.incrementAndGet();
+			allocatedBytes.addAndGet(allocated);
+			intervalAllocatedBytes.addAndGet(allocated);
+		}
+
+		private void recordTick() {
+			histogram.record(tickNanos);
+			intervalHistogram.record(tickNanos);
+			tickNanos = 0;
+			ranThisTick = false;
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+package net.earthcomputer.stepfish.profiler;
+
+import java.util.Map;
+
+/**
+ * The tick profiler as seen through JMX, under the name
+ * {@value TickProfiler#OBJECT_NAME}. Times are in milliseconds, and maps are
+ * keyed by section name or, for collision queries, by class name.
+ */
+public interface TickProfilerMXBean {
+
+	long getTickCount();
+
+	/** Returns the number of ticks the game loop skipped to catch up */
+	long getSkippedTicks();
+
+	double getTickTimeP50();
+
+	double getTickTimeP99();
+
+	double getTickTimeMax();
+
+	/** Returns the median time each section took in the ticks it ran in */
+	Map<String, Double> getSectionTimesP50();
+
+	Map<String, Double> getSectionTimesP99();
+
+	Map<String, Double> getSectionTimesMax();
+
+	/** Returns the total number of times each section has run */
+	Map<String, Long> getSectionCalls();
+
+	/**
+	 * Returns the total number of bytes allocated by each section, or an empty
+	 * map if the JVM can't measure allocation
+	 */
+	Map<String, Long> getSectionAllocatedBytes();
+
+	/**
+	 * Returns the total number of collision queries made for each class of
+	 * object or shape
+	 */
+	Map<String, Long> getCollisionQueries();
+
+	/** Clears everything recorded so far */
+	void reset();
+
+}
@@ -0,0 +1,106 @@
+package net.earthcomputer.stepfish.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A lock-free queue of commands, each of which is a type and a target object.
+ * Commands may be offered from any number of threads, but must only be drained
+ * by one thread at a time.
+ *
+ * Commands are stored in fixed-size segments of arrays rather than in a node
+ * per command. A producer claims a slot in the last segment with an atomic
+ * increment and publishes the command by setting the slot's target, so the
+ * consumer never sees a command which is half written. When a segment is full,
+ * a new one is linked onto the end, and segments are dropped once they have
+ * been drained.
+ */
+public class CommandQueue {
+
+	private static final int SEGMENT_SIZE = 1024;
+
+	private static final AtomicReferenceFieldUpdater<CommandQueue, Segment> TAIL_UPDATER = AtomicReferenceFieldUpdater
+			.newUpdater(CommandQueue.class, Segment.class, "tail");
+
+	/** The segment commands are being added to */
+	private volatile Segment tail;
+	/** The segment being drained, only accessed by the draining thread */
+	private Segment head;
+	/** The index of the next command to drain in the head segment */
+	private int headIndex;
+
+	public CommandQueue() {
+		head = tail = new Segment();
+	}
+
+	/** Adds a command to the end of the queue. The target must not be null */
+	public void offer(int type, Object target) {
+		if (target == null)
+			throw new NullPointerException("target");
+		while (true) {
+			Segment segment = tail;
+			int index = segment.claimed.getAndIncrement();
+			if (index < SEGMENT_SIZE) {
+				segment.types[index] = type;
+				// Publishes the type too
+				segment.targets.set(index, target);
+				return;
+			}
+
+			// The segment is full, move on to the next one, adding it if
+			// nobody else has yet
+			Segment next = segment.next;
+			if (next == null) {
+				Segment newSegment = new Segment();
+				next = Segment.NEXT_UPDATER.compareAndSet(segment, null, newSegment) ? newSegment : segment.next;
+			}
+			TAIL_UPDATER.compareAndSet(this, segment, next);
+		}
+	}
+
+	/**
+	 * Passes each command in the queue to the handler, in the order they were
+	 * added, including commands added by the handler. Stops early at a command
+	 * which another thread is still in the middle of adding, which is left for
+	 * the next drain
+	 */
+	public void drain(ICommandHandler handler) {
+		while (true) {
+			Segment segment = head;
+			int available = Math.min(segment.claimed.get(), SEGMENT_SIZE);
+			while (headIndex < available) {
+				Object target = segment.targets.get(headIndex);
+				if (target == null)
+					return;
+				int type = segment.types[headIndex];
+				// Don't keep drained targets alive
+				segment.targets.lazySet(headIndex, null);
+				headIndex++;
+				handler.handle(type, target);
+				available = Math.min(segment.claimed.get(), SEGMENT_SIZE);
+			}
+			if (headIndex < SEGMENT_SIZE || segment.next == null)
+				return;
+			head = segment.next;
+			headIndex = 0;
+		}
+	}
+
+	/** Handles commands drained from a command queue */
+	public static interface ICommandHandler {
+		void handle(int type, Object target);
+	}
+
+	private static class Segment {
+		private static final AtomicReferenceFieldUpdater<Segment, Segment> NEXT_UPDATER = AtomicReferenceFieldUpdater
+				.newUpdater(Segment.class, Segment.class, "next");
+
+		private final AtomicInteger claimed = new AtomicInteger();
+		private final int[] types = new int[SEGMENT_SIZE];
+		/** A null target means the command hasn't been written yet */
+		private final AtomicReferenceArray<Object> targets = new AtomicReferenceArray<Object>(SEGMENT_SIZE);
+		private volatile Segment next;
+	}
+
+}
@@ -0,0 +1,178 @@
+package net.earthcomputer.stepfish.util;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * A set of elements which iterates in order of decreasing depth, and in
+ * insertion order for elements of the same depth. An element keeps its place
+ * in the insertion order when its depth changes, the same as a stable sort of
+ * a list would give. Elements are kept in a bucket per depth, so the order is
+ * maintained as elements are added, removed and change depth rather than by
+ * sorting.
+ *
+ * Like most collections, this class is not synchronized, and it may not be
+ * modified while it is being iterated over.
+ */
+public class DepthOrderedSet<T> extends AbstractCollection<T> {
+
+	/** The buckets by depth, each of which is ordered by insertion number */
+	private final TreeMap<Integer, TreeMap<Long, T>> buckets = new TreeMap<Integer, TreeMap<Long, T>>(
+			Collections.reverseOrder());
+	private final Map<T, Position> positions;
+	private long nextInsertion;
+
+	public DepthOrderedSet() {
+		positions = new IdentityHashMap<T, Position>();
+	}
+
+	/** Creates a set with room for the given number of elements */
+	public DepthOrderedSet(int expectedSize) {
+		positions = new IdentityHashMap<T, Position>(expectedSize);
+	}
+
+	/**
+	 * Adds an element with the given depth. Returns false if the element was
+	 * already in the set
+	 */
+	public boolean add(T element, int depth) {
+		if (positions.containsKey(element))
+			return false;
+		Position position = new Position(depth, nextInsertion++);
+		positions.put(element, position);
+		addToBucket(element, position);
+		return true;
+	}
+
+	@Override
+	public boolean add(T element) {
+		throw new UnsupportedOperationException("Elements must be added with a depth");
+	}
+
+	@Override
+	public boolean remove(Object element) {
+		Position position = positions.remove(element);
+		if (position == null)
+			return false;
+		removeFromBucket(position);
+		return true;
+	}
+
+	/**
+	 * Moves an element to a new depth, keeping its place in the insertion
+	 * order, so it goes among the elements at that depth as if it had always
+	 * been there. Does nothing if the element isn't in the set
+	 */
+	public void setDepth(T element, int depth) {
+		Position oldPosition = positions.get(element);
+		if (oldPosition == null || oldPosition.depth == depth)
+			return;
+		removeFromBucket(oldPosition);
+		Position position = new Position(depth, oldPosition.insertion);
+		positions.put(element, position);
+		addToBucket(element, position);
+	}
+
+	private void addToBucket(T element, Position position) {
+		TreeMap<Long, T> bucket = buckets.get(position.depth);
+		if (bucket == null) {
+			bucket = new TreeMap<Long, T>();
+			buckets.put(position.depth, bucket);
+		}
+		bucket.put(position.insertion, element);
+	}
+
+	private void removeFromBucket(Position position) {
+		TreeMap<Long, T> bucket = buckets.get(position.depth);
+		bucket.remove(position.insertion);
+		if (bucket.isEmpty()) {
+			buckets.remove(position.depth);
+		}
+	}
+
+	/**
+	 * Returns the elements in the order they were added, regardless of depth.
+	 * Adding them to a new set in this order gives the same order as this
+	 * one, even after later depth changes
+	 */
+	public List<T> toInsertionOrderList() {
+		List<Map.Entry<T, Position>> entries = new ArrayList<Map.Entry<T, Position>>(positions.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<T, Position>>() {
+			@Override
+			public int compare(Map.Entry<T, Position> first, Map.Entry<T, Position> second) {
+				return Long.compare(first.getValue().insertion, second.getValue().insertion);
+			}
+		});
+		List<T> elements = new ArrayList<T>(entries.size());
+		for (Map.Entry<T, Position> entry : entries) {
+			elements.add(entry.getKey());
+		}
+		return elements;
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		return positions.containsKey(element);
+	}
+
+	@Override
+	public void clear() {
+		buckets.clear();
+		positions.clear();
+	}
+
+	@Override
+	public int size() {
+		return positions.size();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private final Iterator<TreeMap<Long, T>> bucketItr = buckets.values().iterator();
+			private Iterator<T> elementItr = Collections.<T> emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!elementItr.hasNext()) {
+					if (!bucketItr.hasNext())
+						return false;
+					elementItr = bucketItr.next().values().iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return elementItr.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static class Position {
+		private final int depth;
+		/** The number of elements added to the set before this one */
+		private final long insertion;
+
+		private Position(int depth, long insertion) {
+			this.depth = depth;
+			this.insertion = insertion;
+		}
+	}
+
+}
@@ -0,0 +1,31 @@
+package net.earthcomputer.stepfish.util;
+
+/** Something which decides which key bindings are held down, such as the keyboard or a scripted sequence of inputs.
+ * Bindings can be asked about by name, or by an id looked up once with {@link #getBindingId(String)}, which saves
+ * looking up the name on every tick */
+public interface IInputSource
+{
+	
+	/** Returns whether a key with the given binding was pressed this tick */
+	boolean isKeyPressed(String keyBinding);
+	
+	/** Returns whether a key with the given binding was released this tick */
+	boolean isKeyReleased(String keyBinding);
+	
+	/** Returns whether a key with the given binding is held down */
+	boolean isKeyDown(String keyBinding);
+	
+	/** Returns this input source's id for the binding with the given name, which doesn't change, or -1 if the binding
+	 * can never be down */
+	int getBindingId(String keyBinding);
+	
+	/** Returns whether a key with the binding with the given id was pressed this tick */
+	boolean isKeyPressed(int bindingId);
+	
+	/** Returns whether a key with the binding with the given id was released this tick */
+	boolean isKeyReleased(int bindingId);
+	
+	/** Returns whether a key with the binding with the given id is held down */
+	boolean isKeyDown(int bindingId);
+	
+}
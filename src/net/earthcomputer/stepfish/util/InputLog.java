@@ -0,0 +1,284 @@
+package net.earthcomputer.stepfish.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * The state of a fixed set of key bindings on every tick of a run, which can
+ * be played back exactly as it was recorded. Each tick's state is a bitset
+ * with a down, pressed and released bit for each binding, so playing back
+ * gives the same answers the recorded input source gave, even where a key was
+ * pressed and released within a tick.
+ *
+ * Only the changes are stored, as the number of ticks the state stayed the
+ * same followed by the bits which changed, both as variable-length integers.
+ * Held keys cost nothing, and a tap of a key costs a few bytes.
+ */
+public class InputLog {
+
+	/** Each binding has this many bits in a tick's state */
+	private static final int BITS_PER_BINDING = 3;
+	private static final int DOWN_BIT = 0;
+	private static final int PRESSED_BIT = 1;
+	private static final int RELEASED_BIT = 2;
+	/** The most bindings which fit in a tick's state */
+	public static final int MAX_BINDINGS = 64 / BITS_PER_BINDING;
+
+	private final String[] bindings;
+	private final int tickCount;
+	private final byte[] changes;
+
+	private InputLog(String[] bindings, int tickCount, byte[] changes) {
+		this.bindings = bindings;
+		this.tickCount = tickCount;
+		this.changes = changes;
+	}
+
+	/** Starts recording the given bindings */
+	public static Recorder record(String... bindings) {
+		checkBindings(bindings);
+		return new Recorder(bindings.clone());
+	}
+
+	public String[] getBindings() {
+		return bindings.clone();
+	}
+
+	/** Returns the number of ticks recorded */
+	public int getTickCount() {
+		return tickCount;
+	}
+
+	/** Returns the number of bytes taken by the changes */
+	public int getChangesSize() {
+		return changes.length;
+	}
+
+	/** Returns a new input source which plays back the log from the start */
+	public Player play() {
+		return new Player(this);
+	}
+
+	public void write(DataOutput output) throws IOException {
+		output.writeByte(bindings.length);
+		for (String binding : bindings) {
+			output.writeUTF(binding);
+		}
+		output.writeInt(tickCount);
+		output.writeInt(changes.length);
+		output.write(changes);
+	}
+
+	public static InputLog read(DataInput input) throws IOException {
+		String[] bindings = new String[input.readUnsignedByte()];
+		for (int i = 0; i < bindings.length; i++) {
+			bindings[i] = input.readUTF();
+		}
+		try {
+			checkBindings(bindings);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+		int tickCount = input.readInt();
+		int changesSize = input.readInt();
+		if (tickCount < 0 || changesSize < 0)
+			throw new IOException("Negative input log size");
+		byte[] changes = new byte[changesSize];
+		input.readFully(changes);
+		return new InputLog(bindings, tickCount, changes);
+	}
+
+	private static void checkBindings(String[] bindings) {
+		if (bindings.length > MAX_BINDINGS)
+			throw new IllegalArgumentException("Can't log more than " + MAX_BINDINGS + " bindings");
+		if (new HashSet<String>(Arrays.asList(bindings)).size() != bindings.length)
+			throw new IllegalArgumentException("Duplicate binding in " + Arrays.toString(bindings));
+	}
+
+	/**
+	 * Records the state of the bindings from an input source once per tick. Not
+	 * thread safe
+	 */
+	public static class Recorder {
+		private final String[] bindings;
+		private final ByteArrayOutputStream changes = new ByteArrayOutputStream();
+		private long state;
+		/** The number of ticks since the state last changed */
+		private int unchangedTicks;
+		private int tickCount;
+
+		private Recorder(String[] bindings) {
+			this.bindings = bindings;
+		}
+
+		/** Records the current state of the bindings as the next tick */
+		public void recordTick(IInputSource input) {
+			long newState = 0;
+			for (int i = 0; i < bindings.length; i++) {
+				String binding = bindings[i];
+				int shift = i * BITS_PER_BINDING;
+				if (input.isKeyDown(binding))
+					newState |= 1L << (shift + DOWN_BIT);
+				if (input.isKeyPressed(binding))
+					newState |= 1L << (shift + PRESSED_BIT);
+				if (input.isKeyReleased(binding))
+					newState |= 1L << (shift + RELEASED_BIT);
+			}
+			if (newState != state) {
+				writeVarLong(unchangedTicks);
+				writeVarLong(newState ^ state);
+				state = newState;
+				unchangedTicks = 0;
+			}
+			unchangedTicks++;
+			tickCount++;
+		}
+
+		/** Returns the number of ticks recorded so far */
+		public int getTickCount() {
+			return tickCount;
+		}
+
+		/** Returns a log of the ticks recorded so far. Recording may carry on afterwards */
+		public InputLog toLog() {
+			return new InputLog(bindings, tickCount, changes.toByteArray());
+		}
+
+		private void writeVarLong(long value) {
+			while ((value & ~0x7fL) != 0) {
+				changes.write((int) (value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			changes.write((int) value);
+		}
+	}
+
+	/**
+	 * An input source which plays back a log, moving on a tick each time
+	 * {@link #updateTick()} is called. Once the log runs out, the bindings stay
+	 * as they were on the last tick. Not thread safe
+	 */
+	public static class Player implements IInputSource {
+		private final InputLog log;
+		private final Map<String, Integer> bindingShifts = new HashMap<String, Integer>();
+		private long state;
+		private int changesIndex;
+		/** The number of ticks until the state next changes, or -1 if it doesn't */
+		private int ticksUntilChange;
+		private long nextChange;
+		private int ticksPlayed;
+
+		private Player(InputLog log) {
+			this.log = log;
+			for (int i = 0; i < log.bindings.length; i++) {
+				bindingShifts.put(log.bindings[i], i * BITS_PER_BINDING);
+			}
+			rewind();
+		}
+
+		/** Goes back to before the first tick, with nothing held down */
+		public void rewind() {
+			state = 0;
+			changesIndex = 0;
+			ticksPlayed = 0;
+			readChange();
+		}
+
+		/** Moves on to the next tick of the log */
+		public void updateTick() {
+			while (ticksUntilChange == 0) {
+				state ^= nextChange;
+				readChange();
+			}
+			if (ticksUntilChange > 0)
+				ticksUntilChange--;
+			ticksPlayed++;
+		}
+
+		/** Returns whether every tick of the log has been played */
+		public boolean isFinished() {
+			return ticksPlayed >= log.tickCount;
+		}
+
+		public int getTicksPlayed() {
+			return ticksPlayed;
+		}
+
+		@Override
+		public boolean isKeyPressed(String keyBinding) {
+			return isBitSet(keyBinding, PRESSED_BIT);
+		}
+
+		@Override
+		public boolean isKeyReleased(String keyBinding) {
+			return isBitSet(keyBinding, RELEASED_BIT);
+		}
+
+		@Override
+		public boolean isKeyDown(String keyBinding) {
+			return isBitSet(keyBinding, DOWN_BIT);
+		}
+
+		/** The id of a binding is its index in the log's bindings */
+		@Override
+		public int getBindingId(String keyBinding) {
+			Integer shift = bindingShifts.get(keyBinding);
+			return shift == null ? -1 : shift / BITS_PER_BINDING;
+		}
+
+		@Override
+		public boolean isKeyPressed(int bindingId) {
+			return isBitSet(bindingId, PRESSED_BIT);
+		}
+
+		@Override
+		public boolean isKeyReleased(int bindingId) {
+			return isBitSet(bindingId, RELEASED_BIT);
+		}
+
+		@Override
+		public boolean isKeyDown(int bindingId) {
+			return isBitSet(bindingId, DOWN_BIT);
+		}
+
+		private boolean isBitSet(String keyBinding, int bit) {
+			Integer shift = bindingShifts.get(keyBinding);
+			return shift != null && (state & (1L << (shift + bit))) != 0;
+		}
+
+		private boolean isBitSet(int bindingId, int bit) {
+			return bindingId >= 0 && bindingId < log.bindings.length
+					&& (state & (1L << (bindingId * BITS_PER_BINDING + bit))) != 0;
+		}
+
+		private void readChange() {
+			if (changesIndex == log.changes.length) {
+				ticksUntilChange = -1;
+				return;
+			}
+			ticksUntilChange = (int) readVarLong();
+			nextChange = readVarLong();
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (changesIndex == log.changes.length || shift > 63)
+					throw new IllegalStateException("Corrupt input log");
+				b = log.changes[changesIndex++];
+				value |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+	}
+
+}
@@ -7,12 +7,66 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * Keeps track of which keys are held down, and which key bindings that makes
+ * pressed, released and held down on each tick. Key events may come from any
+ * thread, but only change the state seen by the game in {@link #updateTick()}.
+ *
+ * Each key binding gets a small id when it's first bound, and the state of all
+ * the bindings is worked out once a tick as a bitmask indexed by id, so asking
+ * about a binding is a bit test without locking.
+ */
 public class Keyboard extends KeyAdapter {
 
+	/** The most key bindings there can be, one for each bit of a long */
+	public static final int MAX_BINDINGS = 64;
+
 	private static final Keyboard INSTANCE = new Keyboard();
+	private static final IInputSource INPUT_SOURCE = new IInputSource() {
+		@Override
+		public boolean isKeyPressed(String keyBinding) {
+			return Keyboard.isKeyPressed(keyBinding);
+		}
+
+		@Override
+		public boolean isKeyReleased(String keyBinding) {
+			return Keyboard.isKeyReleased(keyBinding);
+		}
 
-	private final Map<Integer, Set<String>> keyBindingsCodeToName = new HashMap<Integer, Set<String>>();
+		@Override
+		public boolean isKeyDown(String keyBinding) {
+			return Keyboard.isKeyDown(keyBinding);
+		}
+
+		@Override
+		public int getBindingId(String keyBinding) {
+			return Keyboard.getBindingId(keyBinding);
+		}
+
+		@Override
+		public boolean isKeyPressed(int bindingId) {
+			return Keyboard.isKeyPressed(bindingId);
+		}
+
+		@Override
+		public boolean isKeyReleased(int bindingId) {
+			return Keyboard.isKeyReleased(bindingId);
+		}
+
+		@Override
+		public boolean isKeyDown(int bindingId) {
+			return Keyboard.isKeyDown(bindingId);
+		}
+	};
+
+	/** The bits of the bindings each key code is bound to */
+	private final Map<Integer, Long> keyBindingsCodeToMask = new HashMap<Integer, Long>();
 	private final Map<String, Set<Integer>> keyBindingsNameToCode = new HashMap<String, Set<Integer>>();
+	private final Map<String, Integer> bindingIds = new HashMap<String, Integer>();
+	/** The bitmasks of the bindings which are pressed, released and down this tick */
+	private volatile long bindingsPressed;
+	private volatile long bindingsReleased;
+	private volatile long bindingsDown;
 	private final Set<Integer> keysPressed = new HashSet<Integer>();
 	private final Set<Integer> keysReleased = new HashSet<Integer>();
 	private final Set<Integer> keysDown = new HashSet<Integer>();
@@ -31,6 +85,11 @@ public class Keyboard extends KeyAdapter {
 		return INSTANCE;
 	}
 
+	/** Returns the keyboard as an input source */
+	public static IInputSource inputSource() {
+		return INPUT_SOURCE;
+	}
+
 	public static void registerKeyBindings() {
 		bindKey(KeyEvent.VK_LEFT, "moveLeft");
 		bindKey(KeyEvent.VK_A, "moveLeft");
@@ -44,15 +103,18 @@ public class Keyboard extends KeyAdapter {
 		bindKey(KeyEvent.VK_DOWN, "scrollDown");
 	}
 
+	/**
+	 * Binds a key to a binding name. Bindings must be set up before key events
+	 * start coming in, as the bindings aren't synchronized
+	 */
 	public static void bindKey(int keyCode, String name) {
 		INSTANCE.doBindKey(keyCode, name);
 	}
 
 	private void doBindKey(int keyCode, String name) {
-		if (!keyBindingsCodeToName.containsKey(keyCode)) {
-			keyBindingsCodeToName.put(keyCode, new HashSet<String>());
-		}
-		keyBindingsCodeToName.get(keyCode).add(name);
+		long bindingMask = 1L << doGetOrCreateBindingId(name);
+		Long keyMask = keyBindingsCodeToMask.get(keyCode);
+		keyBindingsCodeToMask.put(keyCode, keyMask == null ? bindingMask : keyMask | bindingMask);
 
 		if (!keyBindingsNameToCode.containsKey(name)) {
 			keyBindingsNameToCode.put(name, new HashSet<Integer>());
@@ -60,61 +122,65 @@ public class Keyboard extends KeyAdapter {
 		keyBindingsNameToCode.get(name).add(keyCode);
 	}
 
+	private int doGetOrCreateBindingId(String name) {
+		Integer id = bindingIds.get(name);
+		if (id == null) {
+			if (bindingIds.size() == MAX_BINDINGS)
+				throw new IllegalStateException("Can't have more than " + MAX_BINDINGS + " key bindings");
+			id = bindingIds.size();
+			bindingIds.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the binding with the given name, or -1 if no keys are
+	 * bound to it. Ids can be looked up once and passed to the methods taking
+	 * an id, to save looking up the name each time
+	 */
+	public static int getBindingId(String keyBinding) {
+		Integer id = INSTANCE.bindingIds.get(keyBinding);
+		return id == null ? -1 : id;
+	}
+
 	public static boolean isKeyPressed(String keyBinding) {
-		return INSTANCE.doIsKeyPressed(keyBinding);
+		return INSTANCE.doIsKeyPressed(getBindingId(keyBinding));
 	}
 
-	private boolean doIsKeyPressed(String keyBinding) {
-		Set<Integer> possibleKeys = keyBindingsNameToCode.get(keyBinding);
-		if (possibleKeys == null) {
-			return false;
-		}
-		synchronized (SYNC_LOCK) {
-			for (Integer keyPressed : keysPressed) {
-				if (possibleKeys.contains(keyPressed)) {
-					return true;
-				}
-			}
-		}
-		return false;
+	public static boolean isKeyPressed(int bindingId) {
+		return INSTANCE.doIsKeyPressed(bindingId);
+	}
+
+	private boolean doIsKeyPressed(int bindingId) {
+		return isBindingSet(bindingsPressed, bindingId);
 	}
 
 	public static boolean isKeyReleased(String keyBinding) {
-		return INSTANCE.doIsKeyReleased(keyBinding);
+		return INSTANCE.doIsKeyReleased(getBindingId(keyBinding));
 	}
 
-	private boolean doIsKeyReleased(String keyBinding) {
-		Set<Integer> possibleKeys = keyBindingsNameToCode.get(keyBinding);
-		if (possibleKeys == null) {
-			return false;
-		}
-		synchronized (SYNC_LOCK) {
-			for (Integer keyReleased : keysReleased) {
-				if (possibleKeys.contains(keyReleased)) {
-					return true;
-				}
-			}
-		}
-		return false;
+	public static boolean isKeyReleased(int bindingId) {
+		return INSTANCE.doIsKeyReleased(bindingId);
+	}
+
+	private boolean doIsKeyReleased(int bindingId) {
+		return isBindingSet(bindingsReleased, bindingId);
 	}
 
 	public static boolean isKeyDown(String keyBinding) {
-		return INSTANCE.doIsKeyDown(keyBinding);
+		return INSTANCE.doIsKeyDown(getBindingId(keyBinding));
 	}
 
-	private boolean doIsKeyDown(String keyBinding) {
-		Set<Integer> possibleKeys = keyBindingsNameToCode.get(keyBinding);
-		if (possibleKeys == null) {
-			return false;
-		}
-		synchronized (SYNC_LOCK) {
-			for (Integer keyDown : keysDown) {
-				if (possibleKeys.contains(keyDown)) {
-					return true;
-				}
-			}
-		}
-		return false;
+	public static boolean isKeyDown(int bindingId) {
+		return INSTANCE.doIsKeyDown(bindingId);
+	}
+
+	private boolean doIsKeyDown(int bindingId) {
+		return isBindingSet(bindingsDown, bindingId);
+	}
+
+	private static boolean isBindingSet(long bindings, int bindingId) {
+		return bindingId >= 0 && (bindings & (1L << bindingId)) != 0;
 	}
 
 	public static void pressKey(int keyCode) {
@@ -218,7 +284,22 @@ public class Keyboard extends KeyAdapter {
 					ticksSinceKeyReleased.put(time.getKey(), time.getValue() + 1);
 				}
 			}
+
+			bindingsPressed = getBindingMask(keysPressed);
+			bindingsReleased = getBindingMask(keysReleased);
+			bindingsDown = getBindingMask(keysDown);
+		}
+	}
+
+	/** Returns the bits of all the bindings the given keys are bound to */
+	private long getBindingMask(Set<Integer> keys) {
+		long mask = 0;
+		for (Integer key : keys) {
+			Long keyMask = keyBindingsCodeToMask.get(key);
+			if (keyMask != null)
+				mask |= keyMask;
 		}
+		return mask;
 	}
 
 	@Override
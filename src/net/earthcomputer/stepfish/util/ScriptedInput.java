@@ -0,0 +1,97 @@
+package net.earthcomputer.stepfish.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An input source whose key bindings are held down and let go by code, for
+ * running the game without a keyboard. Like the keyboard, a binding counts as
+ * pressed or released on the tick after it changes.
+ *
+ * Each binding gets an id the first time it's used, and the bindings which are
+ * down, pressed and released are kept as bitmasks indexed by id.
+ */
+public class ScriptedInput implements IInputSource {
+
+	/** The most bindings there can be, one for each bit of a long */
+	public static final int MAX_BINDINGS = 64;
+
+	private final Map<String, Integer> bindingIds = new HashMap<String, Integer>();
+	private long keysDown;
+	private long keysPressed;
+	private long keysReleased;
+	private long pendingKeysDown;
+
+	/** Holds down or lets go of the given binding, from the next tick */
+	public void setKeyDown(String keyBinding, boolean down) {
+		long mask = 1L << getBindingId(keyBinding);
+		if (down) {
+			pendingKeysDown |= mask;
+		} else {
+			pendingKeysDown &= ~mask;
+		}
+	}
+
+	/** Lets go of all bindings, from the next tick */
+	public void releaseAll() {
+		pendingKeysDown = 0;
+	}
+
+	/** Applies the changes made since the last tick */
+	public void updateTick() {
+		keysPressed = pendingKeysDown & ~keysDown;
+		keysReleased = keysDown & ~pendingKeysDown;
+		keysDown = pendingKeysDown;
+	}
+
+	@Override
+	public boolean isKeyPressed(String keyBinding) {
+		return isKeyPressed(getBindingId(keyBinding));
+	}
+
+	@Override
+	public boolean isKeyReleased(String keyBinding) {
+		return isKeyReleased(getBindingId(keyBinding));
+	}
+
+	@Override
+	public boolean isKeyDown(String keyBinding) {
+		return isKeyDown(getBindingId(keyBinding));
+	}
+
+	/**
+	 * Returns the id of the given binding, giving it one if it hasn't been used
+	 * before, so that it can be looked up before it's first held down
+	 */
+	@Override
+	public int getBindingId(String keyBinding) {
+		Integer id = bindingIds.get(keyBinding);
+		if (id == null) {
+			if (bindingIds.size() == MAX_BINDINGS)
+				throw new IllegalStateException("Can't have more than " + MAX_BINDINGS + " key bindings");
+			id = bindingIds.size();
+			bindingIds.put(keyBinding, id);
+		}
+		return id;
+	}
+
+	@Override
+	public boolean isKeyPressed(int bindingId) {
+		return isBindingSet(keysPressed, bindingId);
+	}
+
+	@Override
+	public boolean isKeyReleased(int bindingId) {
+		return isBindingSet(keysReleased, bindingId);
+	}
+
+	@Override
+	public boolean isKeyDown(int bindingId) {
+		return isBindingSet(keysDown, bindingId);
+	}
+
+	private static boolean isBindingSet(long bindings, int bindingId) {
+		return bindingId >= 0 && bindingId < MAX_BINDINGS && (bindings & (1L << bindingId)) != 0;
+	}
+
+}
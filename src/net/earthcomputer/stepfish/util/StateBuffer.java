@@ -0,0 +1,87 @@
+package net.earthcomputer.stepfish.util;
+
+import java.util.Arrays;
+
+/**
+ * A compact store of primitive values, written one after another and read back
+ * in the same order. Each value takes one long, and doubles and floats keep
+ * their exact bits.
+ */
+public class StateBuffer {
+
+	private long[] values = new long[64];
+	private int length;
+	private int readIndex;
+
+	public void writeLong(long value) {
+		if (length == values.length) {
+			values = Arrays.copyOf(values, Math.max(16, length * 2));
+		}
+		values[length++] = value;
+	}
+
+	public void writeInt(int value) {
+		writeLong(value);
+	}
+
+	public void writeBoolean(boolean value) {
+		writeLong(value ? 1 : 0);
+	}
+
+	public void writeDouble(double value) {
+		writeLong(Double.doubleToRawLongBits(value));
+	}
+
+	public void writeFloat(float value) {
+		writeLong(Float.floatToRawIntBits(value));
+	}
+
+	/** Writes an enum constant, which may be null */
+	public void writeEnum(Enum<?> value) {
+		writeLong(value == null ? -1 : value.ordinal());
+	}
+
+	public long readLong() {
+		if (readIndex >= length)
+			throw new IllegalStateException("Read past the end of the state");
+		return values[readIndex++];
+	}
+
+	public int readInt() {
+		return (int) readLong();
+	}
+
+	public boolean readBoolean() {
+		return readLong() != 0;
+	}
+
+	public double readDouble() {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	public float readFloat() {
+		return Float.intBitsToFloat((int) readLong());
+	}
+
+	/** Reads an enum constant of the given class, which may be null */
+	public <E extends Enum<E>> E readEnum(Class<E> enumClass) {
+		int ordinal = (int) readLong();
+		return ordinal == -1 ? null : enumClass.getEnumConstants()[ordinal];
+	}
+
+	/** Goes back to reading from the start */
+	public void rewind() {
+		readIndex = 0;
+	}
+
+	/** Returns the number of values written */
+	public int size() {
+		return length;
+	}
+
+	/** Frees the space which wasn't used once everything has been written */
+	public void trim() {
+		values = Arrays.copyOf(values, length);
+	}
+
+}